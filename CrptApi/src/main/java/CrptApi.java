@@ -6,11 +6,11 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.http.*;
 import java.time.LocalDate;
-import java.time.chrono.ChronoLocalDate;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.*;
-import java.util.regex.Pattern;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
 
 public class CrptApi {
@@ -169,88 +169,212 @@ public class CrptApi {
 
 
     /**
-     * Класс проверки документа
+     * Отчет о проверке документа: ошибки по полям, пустой список - документ корректен
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class ValidationReport {
+        private final Document document;
+        private final List<FieldError> errors;
+
+        public boolean isValid() {
+            return errors.isEmpty();
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class FieldError {
+        private final String field;
+        private final String message;
+
+        @Override
+        public String toString() {
+            return field + ": " + message;
+        }
+    }
+
+    /**
+     * Класс проверки документа. Допустимые значения перечислений собраны в таблицы один раз,
+     * ИНН проверяется разбором цифр с контрольными числами, текущая дата берется один раз на вызов,
+     * а большие пакеты документов и списки продуктов проверяются параллельно
      */
     class ConfirmationService {
 
         private static final int MAX_YEARS_FOR_CERTIFICATE_DOCUMENT = 5;
         private static final int TNVED_CODE_LENGTH = 10;
-        private static final Pattern REGEX = Pattern.compile("^[0-9]+$");
+        /**
+         * Пакеты документов и списки продуктов от этого размера проверяются параллельно
+         */
+        private static final int PARALLEL_THRESHOLD = 1024;
+        private static final Map<String, UsageType> USAGE_TYPES = lookup(UsageType.values(), UsageType::getValue);
+        private static final Map<String, DocumentFormat> DOCUMENT_FORMATS = lookup(DocumentFormat.values(), DocumentFormat::getValue);
+        private static final Map<String, Type> TYPES = lookup(Type.values(), Type::getValue);
+        private static final Map<String, CertificateDocument> CERTIFICATE_DOCUMENTS = lookup(CertificateDocument.values(), CertificateDocument::getCode);
+        private static final Map<String, ProductionType> PRODUCTION_TYPES = lookup(ProductionType.values(), ProductionType::getValue);
+        /**
+         * Весовые коэффициенты контрольных чисел ИНН: одно у десятизначного, два у двенадцатизначного
+         */
+        private static final int[] INN_TEN_WEIGHTS = {2, 4, 10, 3, 5, 9, 4, 6, 8};
+        private static final int[] INN_ELEVEN_WEIGHTS = {7, 2, 4, 10, 3, 5, 9, 4, 6, 8};
+        private static final int[] INN_TWELVE_WEIGHTS = {3, 7, 2, 4, 10, 3, 5, 9, 4, 6, 8};
 
         boolean isValid(Document document) {
-            return document.getUsageType() != null
-                    && Arrays.stream(UsageType.values()).anyMatch(usageType -> usageType.getValue().equals(document.getUsageType()))
-                    && document.getDocumentFormat() != null
-                    && Arrays.stream(DocumentFormat.values()).anyMatch(documentFormat -> documentFormat.getValue().equals(document.getDocumentFormat()))
-                    && document.getType() != null
-                    && Arrays.stream(Type.values()).anyMatch(type -> type.getValue().equals(document.getType()))
-                    && document.getParticipantInn() != null
-                    && innIsValid(document.getParticipantInn())
-                    && isValid(document.getProductionDate())
-                    && isValid(document.getProducts())
-                    && isValid(document.getProduced(), document.getType())
-                    && isValid(document.getAnImport(), document.getType());
+            return validate(document).isValid();
         }
 
-        private boolean isValid(List<Product> products) {
-            return products.stream()
-                    .noneMatch(product ->
-                            product.getTnvedCode() == null
-                                    || product.getTnvedCode().length() != TNVED_CODE_LENGTH
-                                    || product.getTnvedCode().isBlank()
-                                    || !certificateDocumentDateIsValid(product.getCertificateDocumentDate())
-                                    || !certificateDocumentIsValid(product.getCertificateDocument())
-                                    || product.getCode() == null
-                                    || product.getCode().isEmpty()
-                                    || product.getCode().isBlank()
-                    );
+        ValidationReport validate(Document document) {
+            return validate(document, new Period(LocalDate.now()));
         }
 
-        private boolean isValid(Import importObj, String type) {
-            if (type.equals(Type.LP_INTRODUCE_GOODS_AUTO.getValue()) && importObj == null) return true;
-            return type.equals(Type.LP_GOODS_IMPORT_AUTO.getValue())
-                    && importObj.getDecisionCode() > 0
-                    && importObj.getCustomsCode() != null
-                    && !importObj.getCustomsCode().isBlank()
-                    && importObj.getDeclarationNumber() != null
-                    && !importObj.getDeclarationNumber().isBlank()
-                    && importObj.getDeclarationDate() != null
-                    && isValid(importObj.getDeclarationDate());
+        /**
+         * Проверка пакета документов с одной текущей датой; отчеты в порядке документов
+         */
+        List<ValidationReport> validateAll(List<Document> documents) {
+            final var period = new Period(LocalDate.now());
+            final var stream = documents.size() >= PARALLEL_THRESHOLD ? documents.parallelStream() : documents.stream();
+            return stream.map(document -> validate(document, period)).toList();
         }
 
-        private boolean isValid(Produced produced, String type) {
-            if (type.equals(Type.LP_GOODS_IMPORT_AUTO.getValue()) && produced == null) return true;
-            return type.equals(Type.LP_INTRODUCE_GOODS_AUTO.getValue())
-                    && produced.getProductionType() != null
-                    && produced.getProductionType().equals(ProductionType.OWN_PRODUCTION.getValue())
-                    && innIsValid(produced.getOwnerInn())
-                    && innIsValid(produced.getProducerInn());
+        private ValidationReport validate(Document document, Period period) {
+            final var errors = new ArrayList<FieldError>();
+            if (!USAGE_TYPES.containsKey(document.getUsageType()))
+                errors.add(new FieldError("usageType", "unknown value " + document.getUsageType()));
+            if (!DOCUMENT_FORMATS.containsKey(document.getDocumentFormat()))
+                errors.add(new FieldError("documentFormat", "unknown value " + document.getDocumentFormat()));
+            if (!innIsValid(document.getParticipantInn()))
+                errors.add(new FieldError("participantInn", "invalid INN " + document.getParticipantInn()));
+            if (!period.contains(document.getProductionDate()))
+                errors.add(new FieldError("productionDate", "must be within " + MAX_YEARS_FOR_CERTIFICATE_DOCUMENT + " years before today"));
+            validate(document.getProducts(), period, errors);
+
+            final var type = TYPES.get(document.getType());
+            if (type == null) {
+                errors.add(new FieldError("type", "unknown value " + document.getType()));
+            } else {
+                switch (type) {
+                    case LP_INTRODUCE_GOODS_AUTO -> {
+                        validate(document.getProduced(), errors);
+                        if (document.getAnImport() != null)
+                            errors.add(new FieldError("import", "not allowed for type " + type.getValue()));
+                    }
+                    case LP_GOODS_IMPORT_AUTO -> {
+                        validate(document.getAnImport(), period, errors);
+                        if (document.getProduced() != null)
+                            errors.add(new FieldError("produced", "not allowed for type " + type.getValue()));
+                    }
+                }
+            }
+            return new ValidationReport(document, errors);
         }
 
-        private boolean isValid(LocalDate date) {
-            final var nowDate = LocalDate.now();
-            return date != null
-                    && date.isAfter(ChronoLocalDate.from(nowDate.minusYears(MAX_YEARS_FOR_CERTIFICATE_DOCUMENT)))
-                    && date.isBefore(nowDate);
+        private void validate(List<Product> products, Period period, List<FieldError> errors) {
+            if (products == null) {
+                errors.add(new FieldError("products", "is required"));
+                return;
+            }
+            if (products.size() < PARALLEL_THRESHOLD) {
+                for (int i = 0; i < products.size(); i++) validate(products.get(i), i, period, errors);
+                return;
+            }
+            IntStream.range(0, products.size()).parallel()
+                    .mapToObj(i -> {
+                        final var productErrors = new ArrayList<FieldError>();
+                        validate(products.get(i), i, period, productErrors);
+                        return productErrors;
+                    })
+                    .forEachOrdered(errors::addAll);
         }
 
-        private boolean innIsValid(String inn) {
-            return inn != null
-                    && (inn.length() == InnLength.TEN.getAmount() || inn.length() == InnLength.TWELVE.getAmount())
-                    && !inn.isBlank()
-                    && REGEX.matcher(inn).matches();
+        private void validate(Product product, int index, Period period, List<FieldError> errors) {
+            final var field = "products[" + index + "].";
+            if (product.getTnvedCode() == null || product.getTnvedCode().length() != TNVED_CODE_LENGTH || product.getTnvedCode().isBlank())
+                errors.add(new FieldError(field + "tnvedCode", "must be " + TNVED_CODE_LENGTH + " characters long"));
+            if (product.getCertificateDocumentDate() != null && !period.contains(product.getCertificateDocumentDate()))
+                errors.add(new FieldError(field + "certificateDocumentDate", "must be within " + MAX_YEARS_FOR_CERTIFICATE_DOCUMENT + " years before today"));
+            if (product.getCertificateDocument() != null && !CERTIFICATE_DOCUMENTS.containsKey(product.getCertificateDocument()))
+                errors.add(new FieldError(field + "certificateDocument", "unknown value " + product.getCertificateDocument()));
+            if (product.getCode() == null || product.getCode().isBlank())
+                errors.add(new FieldError(field + "code", "is required"));
         }
 
-        private boolean certificateDocumentDateIsValid(LocalDate date) {
-            if (date == null) return true;
-            return isValid(date);
+        private void validate(Import importObj, Period period, List<FieldError> errors) {
+            if (importObj == null) {
+                errors.add(new FieldError("import", "is required for type " + Type.LP_GOODS_IMPORT_AUTO.getValue()));
+                return;
+            }
+            if (importObj.getDecisionCode() <= 0)
+                errors.add(new FieldError("import.decisionCode", "must be positive"));
+            if (importObj.getCustomsCode() == null || importObj.getCustomsCode().isBlank())
+                errors.add(new FieldError("import.customsCode", "is required"));
+            if (importObj.getDeclarationNumber() == null || importObj.getDeclarationNumber().isBlank())
+                errors.add(new FieldError("import.declarationNumber", "is required"));
+            if (!period.contains(importObj.getDeclarationDate()))
+                errors.add(new FieldError("import.declarationDate", "must be within " + MAX_YEARS_FOR_CERTIFICATE_DOCUMENT + " years before today"));
         }
 
-        private boolean certificateDocumentIsValid(String certificateDocument) {
-            if (certificateDocument == null) return true;
-            return
-                    certificateDocument.equals(CertificateDocument.CERTIFICATE.getCode())
-                            || certificateDocument.equals(CertificateDocument.DECLARATION.getCode());
+        private void validate(Produced produced, List<FieldError> errors) {
+            if (produced == null) {
+                errors.add(new FieldError("produced", "is required for type " + Type.LP_INTRODUCE_GOODS_AUTO.getValue()));
+                return;
+            }
+            if (!PRODUCTION_TYPES.containsKey(produced.getProductionType()))
+                errors.add(new FieldError("produced.productionType", "unknown value " + produced.getProductionType()));
+            if (!innIsValid(produced.getOwnerInn()))
+                errors.add(new FieldError("produced.ownerInn", "invalid INN " + produced.getOwnerInn()));
+            if (!innIsValid(produced.getProducerInn()))
+                errors.add(new FieldError("produced.producerInn", "invalid INN " + produced.getProducerInn()));
+        }
+
+        /**
+         * ИНН - 10 или 12 цифр, последние одна или две - контрольные числа: сумма цифр с весами по модулю 11 и 10
+         */
+        private static boolean innIsValid(String inn) {
+            if (inn == null) return false;
+            final var length = inn.length();
+            if (length != InnLength.TEN.getAmount() && length != InnLength.TWELVE.getAmount()) return false;
+            for (int i = 0; i < length; i++) {
+                final var c = inn.charAt(i);
+                if (c < '0' || c > '9') return false;
+            }
+            if (length == InnLength.TEN.getAmount())
+                return checkDigit(inn, INN_TEN_WEIGHTS) == digit(inn, 9);
+            return checkDigit(inn, INN_ELEVEN_WEIGHTS) == digit(inn, 10)
+                    && checkDigit(inn, INN_TWELVE_WEIGHTS) == digit(inn, 11);
+        }
+
+        private static int checkDigit(String inn, int[] weights) {
+            var sum = 0;
+            for (int i = 0; i < weights.length; i++) sum += weights[i] * digit(inn, i);
+            return sum % 11 % 10;
+        }
+
+        private static int digit(String inn, int index) {
+            return inn.charAt(index) - '0';
+        }
+
+        private static <E extends Enum<E>> Map<String, E> lookup(E[] values, Function<E, String> key) {
+            final var map = new HashMap<String, E>();
+            for (E value : values) map.put(key.apply(value), value);
+            return Collections.unmodifiableMap(map);
+        }
+
+        /**
+         * Допустимый период дат документа: последние MAX_YEARS_FOR_CERTIFICATE_DOCUMENT лет до текущей даты,
+         * вычисляется один раз на вызов проверки
+         */
+        private static final class Period {
+            private final LocalDate after;
+            private final LocalDate before;
+
+            Period(LocalDate today) {
+                this.after = today.minusYears(MAX_YEARS_FOR_CERTIFICATE_DOCUMENT);
+                this.before = today;
+            }
+
+            boolean contains(LocalDate date) {
+                return date != null && date.isAfter(after) && date.isBefore(before);
+            }
         }
     }
 
@@ -293,8 +417,9 @@ public class CrptApi {
      * Основной метод работы
      */
     public Response getResponse(Document document, String clientToken) throws Exception {
-        if (!this.confirmation.isValid(document))
-            throw new Exception("Invalid value of the document");
+        final var report = this.confirmation.validate(document);
+        if (!report.isValid())
+            throw new Exception("Invalid value of the document: " + report.getErrors());
         if (clientToken == null) throw new Exception("Token can not be null");
         try {
             incrementCounter();
@@ -304,6 +429,13 @@ public class CrptApi {
         }
     }
 
+    /**
+     * Проверка пакета документов без отправки: отчет с ошибками по полям для каждого документа
+     */
+    public List<ValidationReport> validateAll(List<Document> documents) {
+        return this.confirmation.validateAll(documents);
+    }
+
     private void incrementCounter() throws InterruptedException {
         try {
             this.lock.lock();
@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CrptApiTest {
+
+    private static final String VALID_TEN = "7707083893";
+    private static final String VALID_TWELVE = "500100732259";
+    /**
+     * Пакеты и списки продуктов больше CrptApi.ConfirmationService.PARALLEL_THRESHOLD проверяются параллельно
+     */
+    private static final int ABOVE_PARALLEL_THRESHOLD = 1500;
+
+    private final CrptApi api = new CrptApi(TimeUnit.SECONDS, 1, 10);
+
+    @Test
+    void acceptsValidTenAndTwelveDigitInn() {
+        assertTrue(innErrors(VALID_TEN).isEmpty());
+        assertTrue(innErrors(VALID_TWELVE).isEmpty());
+    }
+
+    /**
+     * Неверна единственная контрольная цифра десятизначного ИНН, первая или вторая - двенадцатизначного
+     */
+    @Test
+    void rejectsInnWithWrongCheckDigit() {
+        assertEquals(List.of("participantInn: invalid INN 7707083894"), innErrors("7707083894"));
+        assertEquals(List.of("participantInn: invalid INN 500100732258"), innErrors("500100732258"));
+        assertEquals(List.of("participantInn: invalid INN 500100732149"), innErrors("500100732149"));
+    }
+
+    @Test
+    void rejectsInnOfWrongLengthOrWithNonDigits() {
+        assertFalse(innErrors("770708389").isEmpty());
+        assertFalse(innErrors("77070838930").isEmpty());
+        assertFalse(innErrors("77070838a3").isEmpty());
+        assertFalse(innErrors(null).isEmpty());
+    }
+
+    /**
+     * Параллельная проверка пакета возвращает отчеты в порядке документов
+     */
+    @Test
+    void validatesLargeBatchInOrder() {
+        final var documents = new ArrayList<CrptApi.Document>();
+        for (int i = 0; i < ABOVE_PARALLEL_THRESHOLD; i++)
+            documents.add(document(i % 3 == 0 ? "7707083894" : VALID_TEN, List.of(product("code" + i))));
+
+        final var reports = api.validateAll(documents);
+        assertEquals(documents.size(), reports.size());
+        for (int i = 0; i < reports.size(); i++) {
+            assertSame(documents.get(i), reports.get(i).getDocument());
+            assertEquals(i % 3 != 0, reports.get(i).isValid(), "document " + i);
+        }
+    }
+
+    /**
+     * Ошибки продуктов из параллельной проверки идут по порядку индексов
+     */
+    @Test
+    void reportsProductErrorsInOrderForLargeList() {
+        final var products = new ArrayList<CrptApi.Product>();
+        final var expected = new ArrayList<String>();
+        for (int i = 0; i < ABOVE_PARALLEL_THRESHOLD; i++) {
+            products.add(product(i % 7 == 0 ? null : "code" + i));
+            if (i % 7 == 0) expected.add("products[" + i + "].code: is required");
+        }
+
+        final var report = api.validateAll(List.of(document(VALID_TEN, products))).get(0);
+        assertEquals(expected, report.getErrors().stream().map(CrptApi.FieldError::toString).toList());
+    }
+
+    private List<String> innErrors(String inn) {
+        final var report = api.validateAll(List.of(document(inn, List.of(product("code"))))).get(0);
+        return report.getErrors().stream().map(CrptApi.FieldError::toString).toList();
+    }
+
+    private CrptApi.Document document(String participantInn, List<CrptApi.Product> products) {
+        return api.new Document("SENT_TO_PRINTER", "MANUAL", "LP_INTRODUCE_GOODS_AUTO", participantInn,
+                LocalDate.now().minusDays(1), products,
+                api.new Produced(VALID_TWELVE, VALID_TEN, "OWN_PRODUCTION"), null);
+    }
+
+    private CrptApi.Product product(String code) {
+        return api.new Product(code, null, null, null, "6401100000");
+    }
+}
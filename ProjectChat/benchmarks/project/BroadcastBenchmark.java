@@ -0,0 +1,128 @@
+package project;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+//Рассылка Server.sendBroadcastMessage на 10/1k/10k сессий поверх соединений-заглушек. Заглушка получает кадр
+//в формате своего протокола (как настоящее соединение перед постановкой в очередь) и отдает его в Blackhole.
+//encodePerConnection - для сравнения: прежняя схема, когда сообщение кодировалось для каждого получателя.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+    @Param({"10", "1000", "10000"})
+    int connections;
+
+    //доля клиентов, оставшихся на Java-сериализации
+    @Param({"0", "0.1"})
+    double legacyShare;
+
+    private Map<String, Session> connectionMap;
+    private Message message;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp(Blackhole blackhole) throws ReflectiveOperationException {
+        Field field = Server.class.getDeclaredField("connectionMap");
+        field.setAccessible(true);
+        connectionMap = (Map<String, Session>) field.get(null);
+        int legacy = (int) (connections * legacyShare);
+        for (int i = 0; i < connections; i++) {
+            BlackholeConnection connection = new BlackholeConnection(blackhole, i < legacy ? Protocol.SERIALIZATION : Protocol.BINARY);
+            //без буфера досылки, как у клиентов до Protocol.SESSIONS
+            connectionMap.put("user" + i, new Session("user" + i, null, connection, 0));
+        }
+        message = new Message(MessageType.TEXT, "bench: сообщение для всех участников чата");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        connectionMap.clear();
+    }
+
+    @Benchmark
+    public void sendBroadcastMessage() {
+        Server.sendBroadcastMessage(message);
+    }
+
+    @Benchmark
+    public void encodePerConnection() throws IOException {
+        for (Session session : connectionMap.values()) {
+            session.send(new EncodedMessage(message));
+        }
+    }
+
+    private static class BlackholeConnection extends Transport {
+        private static final SocketAddress ADDRESS = new InetSocketAddress("localhost", 0);
+
+        private final Blackhole blackhole;
+        private final int protocolVersion;
+
+        BlackholeConnection(Blackhole blackhole, int protocolVersion) {
+            this.blackhole = blackhole;
+            this.protocolVersion = protocolVersion;
+        }
+
+        @Override
+        public void send(Message message) throws IOException {
+            send(new EncodedMessage(message));
+        }
+
+        @Override
+        public void send(EncodedMessage message) throws IOException {
+            sendFrame(ByteBuffer.wrap(message.frame(protocolVersion)));
+        }
+
+        @Override
+        public void sendFrame(ByteBuffer frame) {
+            blackhole.consume(frame);
+        }
+
+        @Override
+        public int getProtocolVersion() {
+            return protocolVersion;
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            return ADDRESS;
+        }
+
+        @Override
+        public int getOutboundDepth() {
+            return 0;
+        }
+
+        @Override
+        public long getDroppedCount() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
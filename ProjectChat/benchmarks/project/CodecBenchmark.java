@@ -0,0 +1,86 @@
+package project;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+//Стоимость кодирования одного сообщения в обоих форматах: двоичный кадр BinaryCodec
+//и самодостаточный кадр Java-сериализации, который сервер пишет клиентам версии 1.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    //длина текста сообщения в символах
+    @Param({"16", "256", "4096"})
+    int length;
+
+    private Message message;
+    private byte[] binaryFrame;
+    private byte[] serializedStream;
+    private ByteBuffer target;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(i % 10 == 0 ? 'ж' : (char) ('a' + i % 26));
+        }
+        message = new Message(MessageType.TEXT, "bench: " + text);
+        binaryFrame = BinaryCodec.encode(message);
+        byte[] header = ObjectStreamFramer.streamHeader();
+        byte[] frame = ObjectStreamFramer.encodeStandalone(message);
+        serializedStream = new byte[header.length + frame.length];
+        System.arraycopy(header, 0, serializedStream, 0, header.length);
+        System.arraycopy(frame, 0, serializedStream, header.length, frame.length);
+        target = ByteBuffer.allocate(BinaryCodec.frameLength(message));
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return BinaryCodec.encode(message);
+    }
+
+    //кодирование в готовый буфер, как при отправке через EncodeBufferPool
+    @Benchmark
+    public ByteBuffer binaryEncodeInto() {
+        target.clear();
+        BinaryCodec.encode(message, target);
+        return target;
+    }
+
+    @Benchmark
+    public Message binaryDecode() throws IOException {
+        return BinaryCodec.decode(ByteBuffer.wrap(binaryFrame));
+    }
+
+    @Benchmark
+    public byte[] serializationEncode() throws IOException {
+        return ObjectStreamFramer.encodeStandalone(message);
+    }
+
+    //включает создание ObjectInputStream: каждый самодостаточный кадр начинается с TC_RESET,
+    //поэтому таблица ссылок все равно не переиспользуется между сообщениями
+    @Benchmark
+    public Object serializationDecode() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serializedStream))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package project;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+//Connection.send и receive в одном потоке через буфер в памяти вместо сокета:
+//измеряется только кодирование, буферизация и разбор кадра, без сети и переключения потоков.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConnectionBenchmark {
+    @Param({"1", "2"})
+    int protocolVersion;
+
+    private Connection connection;
+    private Message message;
+
+    @Setup
+    public void setUp() throws IOException {
+        connection = new Connection(new LoopbackSocket());
+        connection.useProtocol(protocolVersion);
+        message = new Message(MessageType.TEXT, "bench: сообщение средней длины для замера");
+    }
+
+    @Benchmark
+    public Message roundTrip() throws IOException, ClassNotFoundException {
+        connection.send(message);
+        return connection.receive();
+    }
+
+    //сокет, который читает то, что в него же записали
+    private static class LoopbackSocket extends Socket {
+        private final Pipe pipe = new Pipe();
+
+        @Override
+        public InputStream getInputStream() {
+            return pipe.in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return pipe.out;
+        }
+    }
+
+    //однопоточная труба: чтение из пустой трубы - ошибка замера, а не ожидание
+    private static class Pipe {
+        private byte[] bytes = new byte[8192];
+        private int readPosition;
+        private int writePosition;
+
+        final InputStream in = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (readPosition == writePosition) throw new IOException("Труба пуста");
+                return bytes[readPosition++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] target, int offset, int length) throws IOException {
+                if (length == 0) return 0;
+                int available = writePosition - readPosition;
+                if (available == 0) throw new IOException("Труба пуста");
+                int count = Math.min(length, available);
+                System.arraycopy(bytes, readPosition, target, offset, count);
+                readPosition += count;
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return writePosition - readPosition;
+            }
+        };
+
+        final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                ensureCapacity(1);
+                bytes[writePosition++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] source, int offset, int length) {
+                ensureCapacity(length);
+                System.arraycopy(source, offset, bytes, writePosition, length);
+                writePosition += length;
+            }
+        };
+
+        //прочитанное сдвигается в начало, чтобы буфер не рос бесконечно
+        private void ensureCapacity(int length) {
+            if (readPosition == writePosition) {
+                readPosition = 0;
+                writePosition = 0;
+            }
+            if (writePosition + length > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, writePosition + length));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package project;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+//Двоичный формат сообщения (Protocol.BINARY):
+//int длина остатка кадра | byte MessageType.ordinal() | byte флаги | data в UTF-8.
+//В отличие от ObjectOutputStream не пишет описания классов и не хранит таблицу ссылок.
+//С флагом FLAG_COMPRESSED data сжаты (см. FrameCompression).
+final class BinaryCodec {
+    static final int LENGTH_FIELD = 4;
+    static final int HEADER_LENGTH = LENGTH_FIELD + 2;
+    static final int MAX_FRAME_LENGTH = 1 << 20;
+    static final int FLAG_HAS_DATA = 1;
+    static final int FLAG_COMPRESSED = 2;
+    private static final MessageType[] TYPES = MessageType.values();
+
+    private BinaryCodec() {
+    }
+
+    static int frameLength(Message message) {
+        String data = message.getData();
+        return HEADER_LENGTH + (data == null ? 0 : utf8Length(data));
+    }
+
+    //запись кадра в target, в котором должно быть не меньше frameLength(message) свободных байт
+    static void encode(Message message, ByteBuffer target) {
+        String data = message.getData();
+        target.putInt(frameLength(message) - LENGTH_FIELD);
+        target.put((byte) message.getType().ordinal());
+        target.put((byte) (data == null ? 0 : FLAG_HAS_DATA));
+        if (data != null) putUtf8(data, target);
+    }
+
+    static byte[] encode(Message message) {
+        ByteBuffer frame = ByteBuffer.allocate(frameLength(message));
+        encode(message, frame);
+        return frame.array();
+    }
+
+    //кадр из буфера, если он получен полностью; иначе null и позиция буфера не меняется
+    static Message decode(ByteBuffer source) throws StreamCorruptedException {
+        return decode(source, null);
+    }
+
+    //то же для соединения со сжатием кадров; compression == null - сжатые кадры не принимаются
+    static Message decode(ByteBuffer source, FrameCompression compression) throws StreamCorruptedException {
+        if (source.remaining() < LENGTH_FIELD) return null;
+        int length = checkLength(source.getInt(source.position()));
+        if (source.remaining() < LENGTH_FIELD + length) return null;
+
+        int start = source.position() + LENGTH_FIELD;
+        Message message = toMessage(source.get(start), source.get(start + 1),
+                source.array(), source.arrayOffset() + start + 2, length - 2, compression);
+        source.position(start + length);
+        return message;
+    }
+
+    //блокирующее чтение кадра; промежуточный буфер берется из пула
+    static Message read(DataInputStream in, FrameCompression compression) throws IOException {
+        int length = checkLength(in.readInt());
+        ByteBuffer buffer = EncodeBufferPool.SHARED.acquire(length);
+        try {
+            byte[] bytes = buffer.array();
+            in.readFully(bytes, 0, length);
+            return toMessage(bytes[0], bytes[1], bytes, 2, length - 2, compression);
+        } finally {
+            EncodeBufferPool.SHARED.release(buffer);
+        }
+    }
+
+    private static int checkLength(int length) throws StreamCorruptedException {
+        if (length < 2 || length > MAX_FRAME_LENGTH)
+            throw new StreamCorruptedException("Неверная длина кадра " + length);
+        return length;
+    }
+
+    private static Message toMessage(byte type, byte flags, byte[] bytes, int offset, int length,
+                                     FrameCompression compression) throws StreamCorruptedException {
+        int ordinal = type & 0xFF;
+        if (ordinal >= TYPES.length)
+            throw new StreamCorruptedException("Неизвестный тип сообщения " + ordinal);
+        if ((flags & FLAG_HAS_DATA) == 0)
+            return new Message(TYPES[ordinal]);
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            if (compression == null)
+                throw new StreamCorruptedException("Сжатый кадр без согласованного сжатия");
+            byte[] data = compression.inflate(bytes, offset, length);
+            return new Message(TYPES[ordinal], new String(data, StandardCharsets.UTF_8));
+        }
+        return new Message(TYPES[ordinal], new String(bytes, offset, length, StandardCharsets.UTF_8));
+    }
+
+    //длина строки в UTF-8 без промежуточного массива; непарные суррогаты заменяются на '?', как в String.getBytes
+    static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length++;
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putUtf8(String s, ByteBuffer target) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                target.put((byte) c);
+            } else if (c < 0x800) {
+                target.put((byte) (0xC0 | (c >> 6)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                    target.put((byte) (0xF0 | (codePoint >> 18)));
+                    target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    target.put((byte) (0x80 | (codePoint & 0x3F)));
+                } else {
+                    target.put((byte) '?');
+                }
+            } else {
+                target.put((byte) (0xE0 | (c >> 12)));
+                target.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package project;
+
+import java.io.IOException;
+
+//Связь узла с другими узлами кластера. Сервер передает через нее рассылки и изменения состава чата,
+//а получает их через Listener. Сообщение - набор строковых полей, первое поле - вид сообщения (см. Server).
+//Реализация по умолчанию - TcpMeshRelay; без настройки кластера узел работает один (NONE).
+interface ClusterRelay {
+    ClusterRelay NONE = new ClusterRelay() {
+        @Override
+        public String nodeId() {
+            return "";
+        }
+
+        @Override
+        public void start(Listener listener) {
+        }
+
+        @Override
+        public void publish(String... fields) {
+        }
+
+        @Override
+        public boolean send(String nodeId, String... fields) {
+            return false;
+        }
+    };
+
+    //идентификатор этого узла, уникальный в кластере
+    String nodeId();
+
+    void start(Listener listener) throws IOException;
+
+    //всем узлам, с которыми есть связь, по одному разу
+    void publish(String... fields);
+
+    //одному узлу; false, если связи с ним нет
+    boolean send(String nodeId, String... fields);
+
+    //вызывается потоками связи; сообщения одного узла приходят по порядку и без повторов
+    interface Listener {
+        //связь с узлом установлена (или заменена новой): узлу нужно заново отправить состояние этого узла
+        void peerUp(String nodeId);
+
+        //связи с узлом больше нет
+        void peerDown(String nodeId);
+
+        void received(String nodeId, String[] fields);
+    }
+}
@@ -1,44 +1,242 @@
 package project;
 
-import java.io.Closeable;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class Connection implements Closeable {
+public class Connection extends Transport {
     private final Socket socket;
     private final ObjectInputStream in;
     private final ObjectOutputStream out;
+    //после перехода на двоичный формат кадры читаются из того же буферизованного потока, что и у ObjectInputStream
+    private final DataInputStream dataIn;
+    private final OutputStream rawOut;
+    //блокировки вместо synchronized: блокирующее чтение внутри synchronized закрепляет виртуальный поток за несущим
+    private final Lock inLock = new ReentrantLock();
+    private final Lock outLock = new ReentrantLock();
+    //в поток записан готовый кадр в обход out, и таблица ссылок out больше не совпадает с таблицей получателя
+    private boolean outTableStale;
+    //очередь исходящих кадров и писатель, который ее опустошает (на сервере); null - send пишет в сокет сам
+    private OutboundQueue outbound;
+    private Executor writer;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
 
     public Connection(Socket socket) throws IOException {
         this.socket = socket;
-        this.out = new ObjectOutputStream(socket.getOutputStream());
-        this.in = new ObjectInputStream(socket.getInputStream());
+        this.rawOut = socket.getOutputStream();
+        this.out = new ObjectOutputStream(rawOut);
+        this.dataIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.in = new ObjectInputStream(dataIn);
     }
 
+    @Override
     public void send(Message message) throws IOException {
-        synchronized (out) {
-            out.writeObject(message);
+        if (outbound != null) {
+            enqueue(new EncodedMessage(message));
+            return;
+        }
+        outLock.lock();
+        try {
+            if (getProtocolVersion() >= Protocol.BINARY) {
+                ByteBuffer frame = EncodeBufferPool.SHARED.acquire(BinaryCodec.frameLength(message));
+                try {
+                    BinaryCodec.encode(message, frame);
+                    frame.flip();
+                    writeFully(deflate(frame));
+                } finally {
+                    EncodeBufferPool.SHARED.release(frame);
+                }
+            } else {
+                if (outTableStale) {
+                    out.reset();
+                    outTableStale = false;
+                }
+                out.writeObject(message);
+            }
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    @Override
+    public void send(EncodedMessage message) throws IOException {
+        if (outbound != null) {
+            enqueue(message);
+            return;
+        }
+        outLock.lock();
+        try {
+            int version = getProtocolVersion();
+            if (version >= Protocol.BINARY) {
+                writeFully(deflate(ByteBuffer.wrap(message.frame(version))));
+            } else {
+                rawOut.write(message.frame(version));
+                outTableStale = true;
+            }
+        } finally {
+            outLock.unlock();
         }
     }
 
     public Message receive() throws IOException, ClassNotFoundException {
-        synchronized (in) {
-            return (Message) in.readObject();
+        inLock.lock();
+        try {
+            if (getProtocolVersion() >= Protocol.BINARY)
+                return BinaryCodec.read(dataIn, getCompression());
+            return ObjectStreamFramer.readMessage(in);
+        } finally {
+            inLock.unlock();
         }
     }
 
+    //дальнейшие send только ставят кадр в очередь, а записывает их в сокет задача, выполняемая writer
+    void enableOutboundQueue(OutboundQueue queue, Executor writer) {
+        this.writer = writer;
+        this.outbound = queue;
+    }
+
+    @Override
+    void disconnectOnOverflow(int burst) {
+        if (outbound != null) outbound.disconnectOnOverflow(burst);
+    }
+
+    //формат кадра выбирается при постановке в очередь, чтобы смена протокола не затронула уже отправленное
+    private void enqueue(EncodedMessage message) throws IOException {
+        enqueueFrame(ByteBuffer.wrap(message.frame(getProtocolVersion())));
+    }
+
+    @Override
+    public void sendFrame(ByteBuffer frame) throws IOException {
+        if (outbound != null) {
+            enqueueFrame(frame);
+            return;
+        }
+        outLock.lock();
+        try {
+            writeFully(deflate(frame));
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    private void enqueueFrame(ByteBuffer frame) throws IOException {
+        switch (outbound.offer(frame)) {
+            case OVERFLOW:
+                ServerMetrics.SHARED.framesDropped.increment();
+                Log.writeMessage("Клиент {} не успевает получать сообщения, соединение закрывается", getRemoteSocketAddress());
+                close();
+                throw new IOException("Очередь исходящих сообщений переполнена");
+            case DROPPED:
+                ServerMetrics.SHARED.framesDropped.increment();
+                if (outbound.dropped() == 1)
+                    Log.writeMessage("Клиент {} не успевает получать сообщения, часть сообщений отброшена", getRemoteSocketAddress());
+                break;
+        }
+        if (drainScheduled.compareAndSet(false, true))
+            FlushPolicy.schedule(() -> writer.execute(this::drain));
+    }
+
+    //запись накопленных кадров пачками до FlushPolicy.BATCH_BYTES за одну операцию;
+    //одновременно для соединения выполняется не больше одной такой задачи
+    private void drain() {
+        ByteBuffer batch = EncodeBufferPool.SHARED.acquire(FlushPolicy.BATCH_BYTES);
+        try {
+            do {
+                outLock.lock();
+                try {
+                    ByteBuffer frame;
+                    while ((frame = outbound.poll()) != null) {
+                        ServerMetrics.SHARED.messagesOut.increment();
+                        frame = deflate(frame);
+                        if (frame.remaining() > batch.remaining()) {
+                            writeBatch(batch);
+                            if (frame.remaining() > batch.remaining()) {
+                                writeFully(frame);
+                                continue;
+                            }
+                        }
+                        batch.put(frame);
+                    }
+                    writeBatch(batch);
+                } finally {
+                    outLock.unlock();
+                }
+                drainScheduled.set(false);
+            } while (!outbound.isEmpty() && drainScheduled.compareAndSet(false, true));
+        } catch (IOException e) {
+            Log.writeMessage("Не смогли отправить сообщение {}", getRemoteSocketAddress());
+            outbound.clear();
+            try {
+                close();
+            } catch (IOException ignored) {
+            }
+        } finally {
+            EncodeBufferPool.SHARED.release(batch);
+        }
+    }
+
+    //кадр без доступного массива (срез отображенного файла) копируется во временный буфер частями
+    private void writeFully(ByteBuffer frame) throws IOException {
+        if (frame.hasArray()) {
+            rawOut.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            frame.position(frame.limit());
+            return;
+        }
+        ByteBuffer chunk = EncodeBufferPool.SHARED.acquire(EncodeBufferPool.BUFFER_SIZE);
+        try {
+            while (frame.hasRemaining()) {
+                ByteBuffer part = frame.duplicate();
+                part.limit(part.position() + Math.min(part.remaining(), chunk.remaining()));
+                chunk.put(part);
+                frame.position(part.position());
+                writeBatch(chunk);
+            }
+        } finally {
+            EncodeBufferPool.SHARED.release(chunk);
+        }
+    }
+
+    private void writeBatch(ByteBuffer batch) throws IOException {
+        if (batch.position() == 0) return;
+        rawOut.write(batch.array(), 0, batch.position());
+        batch.clear();
+    }
+
+    @Override
+    public int getOutboundDepth() {
+        return outbound == null ? 0 : outbound.depth();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return outbound == null ? 0 : outbound.dropped();
+    }
+
+    @Override
     public SocketAddress getRemoteSocketAddress() {
         return socket.getRemoteSocketAddress();
     }
 
+    //receive, не получивший ничего за millis, завершается SocketTimeoutException (0 - ждать бесконечно)
+    public void setReadTimeout(int millis) throws IOException {
+        socket.setSoTimeout(millis);
+    }
+
     @Override
     public void close() throws IOException {
+        endCompression();
         in.close();
         out.close();
         socket.close();
     }
 }
-
@@ -0,0 +1,55 @@
+package project;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+//Потоки, которые обслуживают блокирующие соединения (Server.Handler, Client.SocketThread).
+//Режим задается свойством -Dchat.threads=platform|virtual. Виртуальные потоки появились в Java 21,
+//поэтому фабрика ищется через reflection; на более старой JVM используются обычные потоки.
+public class ConnectionThreads {
+    private static final boolean VIRTUAL_REQUESTED = "virtual".equals(System.getProperty("chat.threads", "platform"));
+    private static final ThreadFactory VIRTUAL_FACTORY = VIRTUAL_REQUESTED ? virtualThreadFactory() : null;
+
+    private ConnectionThreads() {
+    }
+
+    public static boolean isVirtual() {
+        return VIRTUAL_FACTORY != null;
+    }
+
+    //запуск задачи соединения; виртуальные потоки всегда являются daemon
+    public static Thread start(Runnable task, boolean daemon) {
+        Thread thread;
+        if (VIRTUAL_FACTORY != null) {
+            thread = VIRTUAL_FACTORY.newThread(task);
+        } else {
+            thread = new Thread(task);
+            thread.setDaemon(daemon);
+        }
+        thread.start();
+        return thread;
+    }
+
+    //исполнитель для писателей исходящих очередей: писатель медленного клиента может надолго
+    //заблокироваться в write, поэтому потоки не ограничиваются фиксированным числом
+    public static Executor newWriterExecutor() {
+        if (VIRTUAL_FACTORY != null)
+            return task -> start(task, true);
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "chat-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            ConsoleHelper.writeMessage("Виртуальные потоки недоступны в этой JVM, используются обычные потоки");
+            return null;
+        }
+    }
+}
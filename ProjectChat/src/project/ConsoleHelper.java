@@ -4,6 +4,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
+//Интерактивный ввод-вывод консоли (запросы порта, имени, вывод чата клиента).
+//События сервера печатаются асинхронно через Log, чтобы потоки соединений не ждали System.out.
 public class ConsoleHelper {
     private static BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 
@@ -0,0 +1,46 @@
+package project;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+//Пул буферов для кодирования и чтения кадров: в установившемся режиме
+//отправка сообщения не выделяет память. Буферы берутся на время одной операции.
+final class EncodeBufferPool {
+    static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_CAPACITY = 1 << 16;
+
+    static final EncodeBufferPool SHARED = new EncodeBufferPool(Math.max(16, Runtime.getRuntime().availableProcessors() * 4));
+
+    private final AtomicReferenceArray<ByteBuffer> slots;
+
+    EncodeBufferPool(int size) {
+        this.slots = new AtomicReferenceArray<>(size);
+    }
+
+    ByteBuffer acquire(int minCapacity) {
+        int start = start();
+        for (int i = 0; i < slots.length(); i++) {
+            int index = (start + i) % slots.length();
+            ByteBuffer buffer = slots.get(index);
+            if (buffer != null && buffer.capacity() >= minCapacity && slots.compareAndSet(index, buffer, null)) {
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocate(Math.max(BUFFER_SIZE, minCapacity));
+    }
+
+    void release(ByteBuffer buffer) {
+        if (buffer.capacity() > MAX_POOLED_CAPACITY) return;
+        int start = start();
+        for (int i = 0; i < slots.length(); i++) {
+            int index = (start + i) % slots.length();
+            if (slots.get(index) == null && slots.compareAndSet(index, null, buffer)) return;
+        }
+    }
+
+    //разные потоки начинают поиск с разных ячеек, чтобы меньше конкурировать
+    private int start() {
+        return (int) (Thread.currentThread().getId() % slots.length());
+    }
+}
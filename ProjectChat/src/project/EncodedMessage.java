@@ -0,0 +1,35 @@
+package project;
+
+import java.io.IOException;
+
+//Сообщение, закодированное один раз для всех получателей рассылки.
+//Кадр каждого формата вычисляется при первом обращении и дальше только читается,
+//поэтому один и тот же массив байт отдается всем соединениям без копирования.
+public final class EncodedMessage {
+    private final Message message;
+    private volatile byte[] serializedFrame;
+    private volatile byte[] binaryFrame;
+
+    public EncodedMessage(Message message) {
+        this.message = message;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    //кадр для соединения с данной версией протокола; массив нельзя изменять
+    byte[] frame(int protocolVersion) throws IOException {
+        if (protocolVersion >= Protocol.BINARY) {
+            byte[] frame = binaryFrame;
+            if (frame == null)
+                binaryFrame = frame = BinaryCodec.encode(message);
+            return frame;
+        }
+        //самодостаточный кадр не зависит от таблицы ссылок конкретного ObjectOutputStream
+        byte[] frame = serializedFrame;
+        if (frame == null)
+            serializedFrame = frame = ObjectStreamFramer.encodeStandalone(message);
+        return frame;
+    }
+}
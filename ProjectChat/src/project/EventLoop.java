@@ -0,0 +1,136 @@
+package project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+//Поток с собственным Selector. Все операции с каналами, зарегистрированными
+//в цикле, выполняются только в этом потоке; остальные потоки передают работу через execute
+class EventLoop extends Thread implements Executor {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    //отложенные задачи, доступны только потоку цикла
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    //общий для соединений цикла массив для gathering-записи
+    private final ByteBuffer[] gatherBuffers = new ByteBuffer[FlushPolicy.MAX_GATHER];
+
+    //обработчик готовности канала, передается в качестве attachment ключа
+    interface SelectionHandler {
+        void onReady(SelectionKey key);
+    }
+
+    EventLoop(String name) throws IOException {
+        super(name);
+        setDaemon(true);
+        this.selector = Selector.open();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != this)
+            selector.wakeup();
+    }
+
+    //выполнение задачи в потоке цикла не раньше чем через delayNanos
+    void schedule(Runnable task, long delayNanos) {
+        long deadline = System.nanoTime() + delayNanos;
+        execute(() -> timers.add(new Timer(deadline, task)));
+    }
+
+    //вызывается только из потока цикла; после использования элементы массива нужно обнулить
+    ByteBuffer[] gatherBuffers() {
+        return gatherBuffers;
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == this;
+    }
+
+    //вызывается только из потока цикла
+    SelectionKey register(SelectableChannel channel, int ops, SelectionHandler handler) throws IOException {
+        return channel.register(selector, ops, handler);
+    }
+
+    @Override
+    public void run() {
+        while (!isInterrupted()) {
+            try {
+                //задачи, поставленные из самого цикла, не будят селектор, поэтому не засыпаем при непустой очереди
+                if (!tasks.isEmpty()) selector.selectNow();
+                else if (timers.isEmpty()) selector.select();
+                else selector.select(Math.max(1, (timers.peek().deadline - System.nanoTime() + 999_999) / 1_000_000));
+            } catch (IOException e) {
+                Log.writeMessage("Ошибка ожидания событий в {}", getName());
+                continue;
+            }
+            runTasks();
+            runTimers();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    ((SelectionHandler) key.attachment()).onReady(key);
+                } catch (CancelledKeyException ignored) {
+                    //канал закрыт во время обработки
+                } catch (RuntimeException e) {
+                    //обработчик не справился со своим каналом: закрывается только этот канал, цикл продолжает работу
+                    Log.writeMessage("Ошибка при обработке канала в {}: {}", getName(), e);
+                    key.cancel();
+                    try {
+                        key.channel().close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    private void runTimers() {
+        long now = System.nanoTime();
+        while (!timers.isEmpty() && timers.peek().deadline - now <= 0) {
+            Runnable task = timers.poll().task;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.writeMessage("Ошибка при выполнении задачи в {}: {}", getName(), e);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.writeMessage("Ошибка при выполнении задачи в {}: {}", getName(), e);
+            }
+        }
+    }
+
+    private static class Timer implements Comparable<Timer> {
+        final long deadline;
+        final Runnable task;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package project;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//Объединение исходящих записей. Писатель соединения собирает все накопившиеся кадры
+//в одну запись в сокет; задержка перед записью позволяет при плотном потоке сообщений
+//копить больше кадров, но ограничивает время, которое сообщение проводит в очереди.
+final class FlushPolicy {
+    //-Dchat.flush.latency - максимальная задержка записи в миллисекундах (0 - писать сразу)
+    static final long MAX_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.flush.latency", 0));
+    //-Dchat.flush.batch - сколько байт писать в сокет за одну операцию
+    static final int BATCH_BYTES = Integer.getInteger("chat.flush.batch", 64 * 1024);
+    //сколько кадров собирается в одну gathering-запись в NIO-режиме
+    static final int MAX_GATHER = 64;
+
+    private FlushPolicy() {
+    }
+
+    //запуск записи через MAX_LATENCY_NANOS или сразу, если задержка не задана
+    static void schedule(Runnable flush) {
+        if (MAX_LATENCY_NANOS > 0)
+            TimerHolder.TIMER.schedule(flush, MAX_LATENCY_NANOS, TimeUnit.NANOSECONDS);
+        else
+            flush.run();
+    }
+
+    //таймер создается только если задержка действительно используется
+    private static class TimerHolder {
+        static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "chat-flush-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
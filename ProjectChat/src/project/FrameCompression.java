@@ -0,0 +1,110 @@
+package project;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+//Сжатие кадров двоичного формата (Protocol.COMPRESSION), по образцу permessage-deflate из WebSocket.
+//У соединения свои Deflater и Inflater, и словарь (последние 32 КБ данных) переходит от кадра к кадру,
+//поэтому повторяющиеся имена, фразы и списки участников сжимаются ссылками на прошлые сообщения.
+//Сжимаются только кадры, в которых не меньше -Dchat.compression.threshold байт данных (по умолчанию 256);
+//данные сжатого кадра - raw deflate с SYNC_FLUSH без завершающих байт 00 00 FF FF.
+//Из-за общего словаря сжатый кадр нельзя отбросить или переставить, поэтому сжимает писатель соединения
+//в порядке записи в сокет, уже после того, как очередь решила, какие кадры отбросить.
+//Deflater занимает сотни килобайт вне кучи и создается только при первом большом кадре.
+final class FrameCompression {
+    static final int THRESHOLD = Integer.getInteger("chat.compression.threshold", 256);
+    static final int LEVEL = Integer.getInteger("chat.compression.level", Deflater.DEFAULT_COMPRESSION);
+    private static final byte[] TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+
+    //Deflater используется писателем соединения, Inflater - читателем; блокировки разные
+    private final Object deflateLock = new Object();
+    private final Object inflateLock = new Object();
+    private Deflater deflater;
+    private Inflater inflater;
+    private volatile boolean deflating;
+    private volatile boolean ended;
+
+    //исходящие кадры начинают сжиматься; другая сторона должна поддерживать Protocol.COMPRESSION
+    void enableDeflate() {
+        deflating = true;
+    }
+
+    //кадр в том виде, в каком он уходит в сокет: сжатый, если сжатие включено и данных достаточно, иначе тот же frame.
+    //Кадры другого формата (заголовок потока Java-сериализации до смены протокола) проходят как есть
+    ByteBuffer deflate(ByteBuffer frame) {
+        if (!deflating) return frame;
+        int start = frame.position();
+        int dataLength = frame.remaining() - BinaryCodec.HEADER_LENGTH;
+        if (dataLength < THRESHOLD
+                || frame.getInt(start) != frame.remaining() - BinaryCodec.LENGTH_FIELD
+                || frame.get(start + BinaryCodec.LENGTH_FIELD + 1) != BinaryCodec.FLAG_HAS_DATA)
+            return frame;
+
+        synchronized (deflateLock) {
+            if (ended) return frame;
+            if (deflater == null) deflater = new Deflater(LEVEL, true);
+            deflater.setInput(frame.duplicate().position(start + BinaryCodec.HEADER_LENGTH));
+            byte[] out = new byte[BinaryCodec.HEADER_LENGTH + dataLength / 2 + 64];
+            int length = BinaryCodec.HEADER_LENGTH;
+            //SYNC_FLUSH выдает все, что принято; если место кончилось, вызов повторяется с большим буфером
+            while (true) {
+                length += deflater.deflate(out, length, out.length - length, Deflater.SYNC_FLUSH);
+                if (length < out.length) break;
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            length -= TAIL.length;
+
+            ByteBuffer compressed = ByteBuffer.wrap(out, 0, length);
+            compressed.putInt(length - BinaryCodec.LENGTH_FIELD);
+            compressed.put(frame.get(start + BinaryCodec.LENGTH_FIELD));
+            compressed.put((byte) (BinaryCodec.FLAG_HAS_DATA | BinaryCodec.FLAG_COMPRESSED));
+            compressed.position(0);
+            ServerMetrics.SHARED.framesCompressed.increment();
+            ServerMetrics.SHARED.compressionSaved.add(frame.remaining() - length);
+            return compressed;
+        }
+    }
+
+    //данные сжатого кадра в UTF-8; словарь продолжается с предыдущего сжатого кадра этого соединения
+    byte[] inflate(byte[] bytes, int offset, int length) throws StreamCorruptedException {
+        byte[] input = Arrays.copyOfRange(bytes, offset, offset + length + TAIL.length);
+        System.arraycopy(TAIL, 0, input, length, TAIL.length);
+        synchronized (inflateLock) {
+            if (ended) throw new StreamCorruptedException("Соединение закрыто");
+            if (inflater == null) inflater = new Inflater(true);
+            inflater.setInput(input);
+            byte[] data = new byte[Math.min(BinaryCodec.MAX_FRAME_LENGTH, Math.max(256, length * 4))];
+            int size = 0;
+            try {
+                while (true) {
+                    if (size == data.length) {
+                        if (data.length >= BinaryCodec.MAX_FRAME_LENGTH)
+                            throw new StreamCorruptedException("Сжатый кадр больше " + BinaryCodec.MAX_FRAME_LENGTH + " байт");
+                        data = Arrays.copyOf(data, Math.min(data.length * 2, BinaryCodec.MAX_FRAME_LENGTH));
+                    }
+                    int inflated = inflater.inflate(data, size, data.length - size);
+                    size += inflated;
+                    if (inflated == 0 && (inflater.needsInput() || inflater.finished())) break;
+                }
+            } catch (DataFormatException e) {
+                throw new StreamCorruptedException("Неверные сжатые данные: " + e.getMessage());
+            }
+            return size == data.length ? data : Arrays.copyOf(data, size);
+        }
+    }
+
+    //освобождение памяти zlib при закрытии соединения
+    void end() {
+        ended = true;
+        synchronized (deflateLock) {
+            if (deflater != null) deflater.end();
+        }
+        synchronized (inflateLock) {
+            if (inflater != null) inflater.end();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package project;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+//Исходящая сторона пользователя: рассылка, история, комнаты и метрики сервера отправляют через нее кадры,
+//не зная, что за ней - соединение (Transport) или сессия поверх соединения (Session)
+interface FrameSink extends Closeable {
+    void send(Message message) throws IOException;
+
+    //отправка уже закодированного сообщения, например одного и того же кадра рассылки всем получателям
+    void send(EncodedMessage message) throws IOException;
+
+    //отправка готового кадра в формате этого получателя, например среза журнала сообщений
+    void sendFrame(ByteBuffer frame) throws IOException;
+
+    int getProtocolVersion();
+
+    SocketAddress getRemoteSocketAddress();
+
+    //число кадров, ожидающих записи в сокет
+    int getOutboundDepth();
+
+    //число сообщений, отброшенных из-за переполнения очереди
+    long getDroppedCount();
+}
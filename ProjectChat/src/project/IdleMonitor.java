@@ -0,0 +1,89 @@
+package project;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+//Обнаружение полуоткрытых соединений. Если клиент молчит PING_INTERVAL, сервер шлет ему PING;
+//если за TIMEOUT от него так ничего и не пришло, соединение закрывается как обычный обрыв.
+//На соединение приходится один таймер в TimingWheel, а входящее сообщение лишь обновляет отметку времени:
+//при срабатывании таймер переставляется на срок, отсчитанный от последней активности.
+final class IdleMonitor {
+    //-Dchat.idle.ping.ms и -Dchat.idle.timeout.ms
+    static final long PING_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.idle.ping.ms", 15_000));
+    static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.idle.timeout.ms", 45_000));
+
+    private static final Watch UNWATCHED = new Watch(null, null);
+
+    private final TimingWheel wheel;
+
+    IdleMonitor(TimingWheel wheel) {
+        this.wheel = wheel;
+    }
+
+    //наблюдение за соединением, прошедшим рукопожатие; клиенты до Protocol.HEARTBEAT не отвечают на PING,
+    //их соединения не проверяются
+    Watch watch(FrameSink connection) {
+        if (connection.getProtocolVersion() < Protocol.HEARTBEAT) return UNWATCHED;
+        Watch watch = new Watch(connection, wheel);
+        watch.schedule(PING_INTERVAL_NANOS);
+        return watch;
+    }
+
+    static final class Watch {
+        private final FrameSink connection;
+        private final TimingWheel wheel;
+        private volatile long lastSeen = System.nanoTime();
+        private volatile boolean cancelled;
+        private volatile TimingWheel.Timeout timeout;
+        //время последнего PING, доступно только потоку колеса
+        private long pingedAt = lastSeen - 1;
+
+        private Watch(FrameSink connection, TimingWheel wheel) {
+            this.connection = connection;
+            this.wheel = wheel;
+        }
+
+        //вызывается на каждое входящее сообщение
+        void touch() {
+            lastSeen = System.nanoTime();
+        }
+
+        void cancel() {
+            cancelled = true;
+            TimingWheel.Timeout current = timeout;
+            if (current != null) current.cancel();
+        }
+
+        private void schedule(long delayNanos) {
+            if (cancelled) return;
+            timeout = wheel.schedule(this::check, delayNanos);
+        }
+
+        private void check() {
+            if (cancelled) return;
+            long now = System.nanoTime();
+            long seen = lastSeen;
+            if (now - seen >= TIMEOUT_NANOS) {
+                Log.writeMessage("Клиент {} не отвечает, соединение закрывается", connection.getRemoteSocketAddress());
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                }
+                return;
+            }
+            if (now - seen < PING_INTERVAL_NANOS) {
+                schedule(seen + PING_INTERVAL_NANOS - now);
+                return;
+            }
+            if (pingedAt - seen < 0) {
+                pingedAt = now;
+                try {
+                    connection.send(new Message(MessageType.PING));
+                } catch (IOException e) {
+                    Log.writeMessage("Не смогли отправить сообщение {}", connection.getRemoteSocketAddress());
+                }
+            }
+            schedule(seen + TIMEOUT_NANOS - now);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package project;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+//Асинхронный журнал событий сервера. Потоки ввода-вывода только кладут шаблон и аргументы в кольцевой буфер
+//без блокировок (ячейки с номерами последовательности, как в ограниченной очереди Вьюкова), строку собирает
+//и печатает отдельный поток. Шаблон - текст с {} на месте аргументов, аргументы превращаются в строки
+//только при печати, поэтому передавать можно лишь неизменяемые значения (адреса, имена, числа).
+//Если буфер переполнен, сообщение отбрасывается, а не тормозит обработку соединений; число отброшенных
+//печатается следующей строкой. Размер буфера - -Dchat.log.buffer (по умолчанию 8192).
+//ConsoleHelper остается для интерактивного ввода-вывода.
+final class Log {
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(2, Integer.getInteger("chat.log.buffer", 8192) - 1)) << 1;
+    private static final int MASK = CAPACITY - 1;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int BATCH_CHARS = 8192;
+
+    //sequences[i] == номер записи, которую можно занять в ячейке i; == номер + 1, когда запись опубликована
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private static final String[] templates = new String[CAPACITY];
+    private static final Object[] firstArgs = new Object[CAPACITY];
+    private static final Object[] secondArgs = new Object[CAPACITY];
+    private static final Object[] thirdArgs = new Object[CAPACITY];
+    private static final AtomicLong tail = new AtomicLong();
+    private static final LongAdder dropped = new LongAdder();
+    private static final Thread drainer;
+    private static volatile boolean drainerWaiting;
+    //читается только потоком печати
+    private static long head;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        drainer = new Thread(Log::drain, "chat-log");
+        drainer.setDaemon(true);
+        drainer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "chat-log-flush"));
+    }
+
+    private Log() {
+    }
+
+    static void writeMessage(String template) {
+        publish(template, null, null, null);
+    }
+
+    static void writeMessage(String template, Object first) {
+        publish(template, first, null, null);
+    }
+
+    static void writeMessage(String template, Object first, Object second) {
+        publish(template, first, second, null);
+    }
+
+    static void writeMessage(String template, Object first, Object second, Object third) {
+        publish(template, first, second, third);
+    }
+
+    private static void publish(String template, Object first, Object second, Object third) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) (position & MASK);
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) break;
+            } else if (sequence < position) {
+                dropped.increment();
+                return;
+            }
+        }
+        templates[index] = template;
+        firstArgs[index] = first;
+        secondArgs[index] = second;
+        thirdArgs[index] = third;
+        sequences.set(index, position + 1);
+        if (drainerWaiting) LockSupport.unpark(drainer);
+    }
+
+    //строки накапливаются в одном StringBuilder и печатаются пачкой: один вызов System.out на пачку
+    private static void drain() {
+        StringBuilder batch = new StringBuilder(BATCH_CHARS + 256);
+        while (true) {
+            if (!printAvailable(batch)) {
+                drainerWaiting = true;
+                if (!hasPublished()) LockSupport.parkNanos(Log.class, IDLE_PARK_NANOS);
+                drainerWaiting = false;
+            }
+        }
+    }
+
+    //при завершении JVM ждет, пока поток печати выведет накопленное
+    static void flush() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while ((hasPublished() || !drainerWaiting) && System.nanoTime() < deadline) {
+            LockSupport.unpark(drainer);
+            Thread.yield();
+        }
+    }
+
+    private static boolean hasPublished() {
+        return sequences.get((int) (head & MASK)) == head + 1;
+    }
+
+    private static boolean printAvailable(StringBuilder batch) {
+        boolean printed = false;
+        while (hasPublished()) {
+            int index = (int) (head & MASK);
+            String template = templates[index];
+            Object first = firstArgs[index];
+            Object second = secondArgs[index];
+            Object third = thirdArgs[index];
+            templates[index] = null;
+            firstArgs[index] = null;
+            secondArgs[index] = null;
+            thirdArgs[index] = null;
+            sequences.set(index, head + CAPACITY);
+            head++;
+
+            format(batch, template, first, second, third);
+            batch.append(System.lineSeparator());
+            if (batch.length() >= BATCH_CHARS) print(batch);
+            printed = true;
+        }
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            batch.append("Очередь вывода событий переполнена, пропущено сообщений: ").append(lost).append(System.lineSeparator());
+            printed = true;
+        }
+        print(batch);
+        return printed;
+    }
+
+    private static void print(StringBuilder batch) {
+        if (batch.length() == 0) return;
+        System.out.print(batch);
+        System.out.flush();
+        batch.setLength(0);
+    }
+
+    private static void format(StringBuilder line, String template, Object first, Object second, Object third) {
+        int argument = 0;
+        int from = 0;
+        int placeholder;
+        while ((placeholder = template.indexOf("{}", from)) >= 0 && argument < 3) {
+            line.append(template, from, placeholder);
+            line.append(argument == 0 ? first : argument == 1 ? second : third);
+            argument++;
+            from = placeholder + 2;
+        }
+        line.append(template, from, template.length());
+    }
+}
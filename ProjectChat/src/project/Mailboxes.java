@@ -0,0 +1,39 @@
+package project;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Почтовые ящики личных сообщений для пользователей не в сети. Ящик ограничен -Dchat.mailbox.size
+//сообщениями (по умолчанию 100), число ящиков - -Dchat.mailbox.users (по умолчанию 10 000);
+//в полный ящик сообщение не кладется, и отправитель узнает, что оно не доставлено.
+//Ящики хранятся только в памяти и забираются целиком при входе пользователя.
+final class Mailboxes {
+    static final int SIZE = Integer.getInteger("chat.mailbox.size", 100);
+    static final int MAX_USERS = Integer.getInteger("chat.mailbox.users", 10_000);
+
+    private final Map<String, ArrayDeque<Message>> boxes = new ConcurrentHashMap<>();
+
+    //false, если ящик получателя полон или ящиков слишком много
+    boolean store(String recipient, Message message) {
+        if (!boxes.containsKey(recipient) && boxes.size() >= MAX_USERS) return false;
+        boolean[] stored = new boolean[1];
+        boxes.compute(recipient, (name, box) -> {
+            if (box == null) box = new ArrayDeque<>();
+            if (box.size() < SIZE) {
+                box.add(message);
+                stored[0] = true;
+            }
+            return box;
+        });
+        return stored[0];
+    }
+
+    //сообщения ящика в порядке отправки; ящик удаляется
+    Collection<Message> take(String recipient) {
+        ArrayDeque<Message> box = boxes.remove(recipient);
+        return box == null ? Collections.emptyList() : box;
+    }
+}
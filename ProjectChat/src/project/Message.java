@@ -3,6 +3,11 @@ package project;
 import java.io.Serializable;
 
 public class Message implements Serializable {
+    //значение, вычисленное для исходного класса: клиенты со старой версией Message должны оставаться совместимыми
+    private static final long serialVersionUID = -248017553106017083L;
+    //разделитель значений в data для сообщений с несколькими полями (например, комната и текст)
+    public static final char FIELD_SEPARATOR = '\u001F';
+
     private final MessageType type;
     private final String data;
 
@@ -23,4 +28,19 @@ public class Message implements Serializable {
         this.type = type;
         this.data = data;
     }
+
+    public Message(MessageType type, String... fields) {
+        this(type, String.join(String.valueOf(FIELD_SEPARATOR), fields));
+    }
+
+    //поля data, разделенные FIELD_SEPARATOR; последнее поле забирает остаток строки
+    public String[] getFields(int count) {
+        if (data == null) return new String[0];
+        return data.split(String.valueOf(FIELD_SEPARATOR), count);
+    }
+
+    //все поля data, для сообщений с переменным числом полей (например, список имен)
+    public String[] getFields() {
+        return getFields(-1);
+    }
 }
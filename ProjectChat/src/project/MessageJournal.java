@@ -0,0 +1,276 @@
+package project;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//Журнал сообщений общего чата: сегменты фиксированного размера, дописываемые через MappedByteBuffer.
+//Запись: long смещение | long время (мс) | кадр BinaryCodec. Кадр хранится в том же виде, в каком уходит в сеть,
+//поэтому клиенты с Protocol.BINARY получают историю срезами отображенного файла, без декодирования и копирования.
+//Сегмент называется по смещению своей первой записи; файл заполнен нулями, нулевая длина кадра - конец записей.
+final class MessageJournal {
+    //-Dchat.journal.dir (пустое значение отключает журнал), -Dchat.journal.segment.bytes,
+    //-Dchat.journal.retention.bytes, -Dchat.journal.retention.hours, -Dchat.journal.fsync.ms
+    static final String DIRECTORY = System.getProperty("chat.journal.dir", "chat-journal");
+    static final int SEGMENT_BYTES = Integer.getInteger("chat.journal.segment.bytes", 16 << 20);
+    static final long RETENTION_BYTES = Long.getLong("chat.journal.retention.bytes", 256L << 20);
+    static final long RETENTION_MILLIS = TimeUnit.HOURS.toMillis(Long.getLong("chat.journal.retention.hours", 24 * 7));
+    static final long FSYNC_MILLIS = Long.getLong("chat.journal.fsync.ms", 1000);
+    //сколько сообщений истории отдается на один запрос
+    static final int MAX_HISTORY = 1000;
+
+    private static final int RECORD_HEADER = 16;
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMillis;
+    //сегменты по возрастанию смещения, последний - активный; все поля ниже защищены this
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextOffset;
+    private boolean dirty;
+
+    //диапазон истории: кадры со смещениями from .. from + frames.size() - 1
+    static final class Range {
+        final long from;
+        final List<ByteBuffer> frames;
+
+        Range(long from, List<ByteBuffer> frames) {
+            this.from = from;
+            this.frames = frames;
+        }
+
+        long next() {
+            return from + frames.size();
+        }
+    }
+
+    MessageJournal(Path directory, int segmentBytes, long retentionBytes, long retentionMillis) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    //журнал по системным свойствам с фоновым fsync и очисткой старых сегментов; null, если журнал отключен
+    static MessageJournal fromConfig() throws IOException {
+        if (DIRECTORY.isBlank()) return null;
+
+        MessageJournal journal = new MessageJournal(Paths.get(DIRECTORY), SEGMENT_BYTES, RETENTION_BYTES, RETENTION_MILLIS);
+        ScheduledThreadPoolExecutor flusher = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "chat-journal-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            journal.flush();
+            journal.applyRetention();
+        }, FSYNC_MILLIS, FSYNC_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(journal::flush, "chat-journal-shutdown"));
+        return journal;
+    }
+
+    //добавление сообщения; возвращает его смещение или -1, если кадр не помещается в сегмент
+    synchronized long append(Message message) throws IOException {
+        int length = RECORD_HEADER + BinaryCodec.frameLength(message);
+        if (length > segmentBytes) return -1;
+
+        Segment active = segments.get(segments.size() - 1);
+        if (active.writePosition + length > segmentBytes) {
+            active.buffer.force();
+            active = new Segment(directory.resolve(fileName(nextOffset)), nextOffset, segmentBytes);
+            segments.add(active);
+            applyRetention();
+        }
+
+        long timestamp = System.currentTimeMillis();
+        ByteBuffer buffer = active.buffer;
+        buffer.position(active.writePosition);
+        buffer.putLong(nextOffset);
+        buffer.putLong(timestamp);
+        BinaryCodec.encode(message, buffer);
+        active.add(active.writePosition, timestamp);
+        active.writePosition = buffer.position();
+        dirty = true;
+        return nextOffset++;
+    }
+
+    //не больше max кадров, начиная со смещения from (или с самого старого сохраненного)
+    synchronized Range read(long from, int max) {
+        long start = Math.max(from, firstOffset());
+        List<ByteBuffer> frames = new ArrayList<>((int) Math.max(0, Math.min(max, nextOffset - start)));
+        int index = segmentIndex(start);
+        for (long offset = start; index >= 0 && index < segments.size() && frames.size() < max; index++) {
+            Segment segment = segments.get(index);
+            for (; offset < segment.baseOffset + segment.count && frames.size() < max; offset++) {
+                frames.add(segment.frame((int) (offset - segment.baseOffset)));
+            }
+        }
+        return new Range(start, frames);
+    }
+
+    synchronized Range readLast(int count) {
+        count = Math.max(0, Math.min(count, MAX_HISTORY));
+        return read(nextOffset - count, count);
+    }
+
+    synchronized long nextOffset() {
+        return nextOffset;
+    }
+
+    //смещение самого старого сохраненного сообщения
+    synchronized long oldestOffset() {
+        return firstOffset();
+    }
+
+    //время записи сообщения (мс) или -1, если его уже нет в журнале
+    synchronized long timestamp(long offset) {
+        int index = segmentIndex(offset);
+        if (index < 0 || offset >= nextOffset) return -1;
+        Segment segment = segments.get(index);
+        return segment.buffer.getLong(segment.positions[(int) (offset - segment.baseOffset)] + 8);
+    }
+
+    //сообщение из кадра журнала; срезы отображения доступны только для чтения, поэтому кадр копируется
+    static Message decode(ByteBuffer frame) throws StreamCorruptedException {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        return BinaryCodec.decode(ByteBuffer.wrap(bytes));
+    }
+
+    synchronized void flush() {
+        if (!dirty) return;
+        segments.get(segments.size() - 1).buffer.force();
+        dirty = false;
+    }
+
+    //удаление закрытых сегментов сверх лимита размера или старше срока хранения; активный сегмент не удаляется
+    synchronized void applyRetention() {
+        long total = (long) segments.size() * segmentBytes;
+        long expired = System.currentTimeMillis() - retentionMillis;
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            if (total <= retentionBytes && oldest.lastTimestamp >= expired) break;
+            segments.remove(0);
+            total -= segmentBytes;
+            try {
+                //уже выданные срезы остаются доступны, пока на отображение есть ссылки
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                Log.writeMessage("Не удалось удалить сегмент журнала {}", oldest.path);
+            }
+        }
+    }
+
+    private long firstOffset() {
+        return segments.get(0).baseOffset;
+    }
+
+    private int segmentIndex(long offset) {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (segments.get(i).baseOffset <= offset) return i;
+        }
+        return -1;
+    }
+
+    //чтение существующих сегментов и восстановление индекса смещений
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long baseOffset;
+            try {
+                baseOffset = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Segment segment = new Segment(file, baseOffset, Math.max(segmentBytes, (int) Files.size(file)));
+            segment.scan();
+            segments.add(segment);
+        }
+
+        if (segments.isEmpty()) {
+            segments.add(new Segment(directory.resolve(fileName(0)), 0, segmentBytes));
+        }
+        Segment last = segments.get(segments.size() - 1);
+        nextOffset = last.baseOffset + last.count;
+        if (nextOffset > 0)
+            Log.writeMessage("Журнал сообщений восстановлен, следующее смещение {}", nextOffset);
+    }
+
+    private static String fileName(long baseOffset) {
+        return String.format("%020d%s", baseOffset, SUFFIX);
+    }
+
+    private static class Segment {
+        final Path path;
+        final long baseOffset;
+        final MappedByteBuffer buffer;
+        //позиции записей в сегменте по порядку смещений
+        int[] positions = new int[256];
+        int count;
+        int writePosition;
+        long lastTimestamp;
+
+        Segment(Path path, long baseOffset, int size) throws IOException {
+            this.path = path;
+            this.baseOffset = baseOffset;
+            this.lastTimestamp = System.currentTimeMillis();
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                //отображение остается действительным после закрытия канала
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        void add(int position, long timestamp) {
+            if (count == positions.length) positions = Arrays.copyOf(positions, count * 2);
+            positions[count++] = position;
+            lastTimestamp = timestamp;
+        }
+
+        //срез только для чтения с кадром записи index; у каждого вызова своя позиция
+        ByteBuffer frame(int index) {
+            int start = positions[index] + RECORD_HEADER;
+            int length = BinaryCodec.LENGTH_FIELD + buffer.getInt(start);
+            return buffer.asReadOnlyBuffer().position(start).limit(start + length).slice();
+        }
+
+        //записи идут подряд до первой нулевой или оборванной; хвост после сбоя затирается новыми записями
+        void scan() {
+            int position = 0;
+            while (position + RECORD_HEADER + BinaryCodec.HEADER_LENGTH <= buffer.capacity()) {
+                long offset = buffer.getLong(position);
+                int length = buffer.getInt(position + RECORD_HEADER);
+                if (offset != baseOffset + count || length < 2 || length > BinaryCodec.MAX_FRAME_LENGTH
+                        || position + RECORD_HEADER + BinaryCodec.LENGTH_FIELD + length > buffer.capacity()) break;
+                add(position, buffer.getLong(position + 8));
+                position += RECORD_HEADER + BinaryCodec.LENGTH_FIELD + length;
+            }
+            writePosition = position;
+        }
+    }
+}
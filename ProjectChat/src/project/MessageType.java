@@ -6,5 +6,48 @@ public enum MessageType {
     NAME_ACCEPTED,
     TEXT,
     USER_ADDED,
-    USER_REMOVED
+    USER_REMOVED,
+    //выбор версии протокола клиентом в ответ на NAME_REQUEST, см. Protocol.
+    //Новые типы добавляются только в конец: двоичный формат передает ordinal
+    PROTOCOL,
+    //вход в комнату и выход из нее: data - имя комнаты; сервер подтверждает тем же типом
+    ROOM_JOIN,
+    ROOM_LEAVE,
+    //сообщение в комнату: поля data - комната и текст (от сервера - комната и "имя: текст")
+    ROOM_TEXT,
+    //запрос истории общего чата: поля data - "last" и число сообщений либо "since" и смещение
+    HISTORY_REQUEST,
+    //конец истории, переданной после HISTORY_REQUEST обычными TEXT; data - смещение для следующего запроса "since"
+    HISTORY_END,
+    //возобновление сессии вместо USER_NAME (Protocol.SESSIONS): поля data - токен из NAME_ACCEPTED
+    //и число сообщений, полученных клиентом после NAME_ACCEPTED; сервер отвечает NAME_ACCEPTED и досылает пропущенное
+    SESSION_RESUME,
+    //клиент выходит сам: сервер не держит за ним имя после закрытия соединения
+    SESSION_CLOSE,
+    //проверка живости соединения (Protocol.HEARTBEAT): сервер шлет PING молчащему клиенту, клиент отвечает PONG.
+    //В нумерацию сообщений сессии не входят
+    PING,
+    PONG,
+    //личное сообщение (Protocol.PRIVATE_MESSAGES): поля data - получатель и текст (от сервера - отправитель и текст).
+    //Получателю не в сети сервер доставит сообщение при его следующем входе
+    PRIVATE,
+    //состав чата при входе (Protocol.PRESENCE_SYNC) вместо USER_ADDED о каждом участнике: поля data - номер части,
+    //число частей и имена. Большой список делится на части, часть 0 заменяет список клиента
+    USER_LIST,
+    //пачка изменений состава чата после USER_LIST: поля data - "+имя" для вошедших и "-имя" для ушедших по порядку
+    USERS_CHANGED,
+    //сервер отбросил сообщения клиента, превысившего частоту (Protocol.THROTTLING): data - через сколько
+    //миллисекунд можно писать снова. Отправляется один раз на серию отброшенных сообщений
+    THROTTLED,
+    //служебные сообщения связи узлов кластера (TcpMeshRelay), клиентам не отправляются:
+    //приветствие - поля data - идентификатор узла, время его запуска и, если узел просит сжатие, Protocol.DEFLATE
+    NODE_HELLO,
+    //сообщение узла: поля data - номер сообщения у узла-отправителя, вид и поля сообщения
+    RELAY,
+    //поиск по истории общего чата (Protocol.SEARCH): от клиента data - запрос, от сервера поля data - запрос
+    //и тройки (смещение в журнале, время в мс, текст) самых новых совпадений, начиная с самого нового
+    SEARCH,
+    //сервер останавливается (Protocol.RECONNECT_HINT): data - через сколько миллисекунд переподключаться.
+    //Как PING, в нумерацию сообщений сессии не входит; после него сервер дописывает очередь и закрывает соединение
+    RECONNECT_HINT
 }
@@ -0,0 +1,70 @@
+package project;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+//Сокет режима threads, который считает байты в ServerMetrics. Принятые соединения создаются
+//через implAccept, поэтому Connection работает с ним как с обычным сокетом.
+class MeteredSocket extends Socket {
+    private InputStream in;
+    private OutputStream out;
+
+    static ServerSocket serverSocket(int port) throws IOException {
+        return new ServerSocket(port) {
+            @Override
+            public Socket accept() throws IOException {
+                Socket socket = new MeteredSocket();
+                implAccept(socket);
+                return socket;
+            }
+        };
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (in == null) {
+            in = new FilterInputStream(super.getInputStream()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) ServerMetrics.SHARED.bytesIn.increment();
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    int count = super.read(bytes, offset, length);
+                    if (count > 0) ServerMetrics.SHARED.bytesIn.add(count);
+                    return count;
+                }
+            };
+        }
+        return in;
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (out == null) {
+            //FilterOutputStream по умолчанию пишет массив по одному байту, поэтому write(byte[], ...) переопределен
+            out = new FilterOutputStream(super.getOutputStream()) {
+                @Override
+                public void write(int b) throws IOException {
+                    this.out.write(b);
+                    ServerMetrics.SHARED.bytesOut.increment();
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    this.out.write(bytes, offset, length);
+                    ServerMetrics.SHARED.bytesOut.add(length);
+                }
+            };
+        }
+        return out;
+    }
+}
@@ -0,0 +1,196 @@
+package project;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+//Неблокирующее соединение клиента: тот же транспорт NioTransport, что у NioConnection сервера, но со стороны клиента.
+//Много таких соединений обслуживает один поток Loop, поэтому процесс с сотнями пользователей (хост ботов)
+//не держит по потоку на каждого. Рукопожатие - те же шаги, что в Client.SocketThread.clientHandshake:
+//переход на предложенную версию протокола (со сжатием, если оно включено), затем продолжение прежней сессии
+//(токен и число полученных сообщений прежнего соединения) или имя. PING сервера получает PONG здесь же,
+//слушатель его не видит.
+//Все методы Listener вызываются из потока цикла и не должны блокироваться.
+//Счетчики ServerMetrics здесь не меняются. Исходящие сообщения клиента не отбрасываются: при переполнении
+//очереди соединение закрывается (OverflowPolicy.DISCONNECT), и владелец переподключается с той же сессией.
+public final class NioClientConnection extends NioTransport {
+    private final Listener listener;
+    private String userName;
+    private boolean nameSent;
+    private volatile boolean accepted;
+    //токен сессии из NAME_ACCEPTED и число сообщений, полученных после него; используются потоком цикла
+    private String sessionToken;
+    private long received;
+    private boolean resumeSent;
+    private boolean resumed;
+
+    public interface Listener {
+        //сервер принял имя, дальше приходят сообщения чата
+        void onAccepted(NioClientConnection connection, String userName);
+
+        //имя занято или недопустимо: другое имя или null, чтобы закрыть соединение
+        String onNameRejected(NioClientConnection connection, String userName);
+
+        void onMessage(NioClientConnection connection, Message message);
+
+        //соединение закрыто (сервером, из-за ошибки или методом close)
+        void onClosed(NioClientConnection connection);
+    }
+
+    private NioClientConnection(SocketChannel channel, EventLoop loop, String userName, String sessionToken,
+                                long received, Listener listener) throws IOException {
+        super(channel, loop, new OutboundQueue(OutboundQueue.CAPACITY, OutboundQueue.OverflowPolicy.DISCONNECT));
+        this.userName = userName;
+        this.sessionToken = sessionToken;
+        this.received = received;
+        this.listener = listener;
+    }
+
+    public static NioClientConnection connect(InetSocketAddress address, int timeoutMillis, String userName,
+                                              Loop loop, Listener listener) throws IOException {
+        return connect(address, timeoutMillis, userName, null, 0, loop, listener);
+    }
+
+    //подключение блокирует вызывающий поток (не поток цикла), дальше соединение обслуживает loop.
+    //sessionToken и received - из прежнего соединения (getSessionToken, getReceived), чтобы продолжить его сессию
+    public static NioClientConnection connect(InetSocketAddress address, int timeoutMillis, String userName,
+                                              String sessionToken, long received,
+                                              Loop loop, Listener listener) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(address, timeoutMillis);
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            NioClientConnection connection = new NioClientConnection(channel, loop.loop, userName, sessionToken,
+                    received, listener);
+            loop.execute(() -> {
+                try {
+                    connection.open();
+                } catch (IOException e) {
+                    connection.close();
+                }
+            });
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    //сервер принял имя и соединение еще открыто
+    public boolean isAccepted() {
+        return accepted && !isClosed();
+    }
+
+    //сервер продолжил прежнюю сессию, а не начал новую
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    //null, если сервер не выдал токен (версия протокола до SESSIONS)
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    //клиент первым только пишет заголовок потока, NAME_REQUEST присылает сервер
+    @Override
+    void open() throws IOException {
+        register();
+    }
+
+    @Override
+    void onMessage(Message message) throws IOException {
+        switch (message.getType()) {
+            case PING -> send(new Message(MessageType.PONG));
+            case NAME_REQUEST -> onNameRequest(message);
+            case NAME_ACCEPTED -> {
+                resumed = sessionToken != null;
+                if (!resumed) received = 0;
+                sessionToken = message.getData();
+                accepted = true;
+                listener.onAccepted(this, userName);
+            }
+            //как PING, не входит в нумерацию сообщений сессии
+            case RECONNECT_HINT -> {
+                if (accepted) listener.onMessage(this, message);
+            }
+            default -> {
+                if (!accepted) return;
+                received++;
+                listener.onMessage(this, message);
+            }
+        }
+    }
+
+    //сервер предложил версию протокола - сначала переходим на нее, имя отправим на повторный запрос;
+    //повторный запрос после SESSION_RESUME значит, что сессии больше нет, а после имени - что имя не принято
+    private void onNameRequest(Message message) throws IOException {
+        int version = Protocol.negotiate(message.getData());
+        if (version != getProtocolVersion()) {
+            boolean compress = version >= Protocol.COMPRESSION && Protocol.COMPRESS;
+            send(compress
+                    ? new Message(MessageType.PROTOCOL, String.valueOf(version), Protocol.DEFLATE)
+                    : new Message(MessageType.PROTOCOL, String.valueOf(version)));
+            useProtocol(version);
+            if (compress)
+                enableCompression();
+            return;
+        }
+        if (sessionToken != null) {
+            if (!resumeSent && version >= Protocol.SESSIONS) {
+                resumeSent = true;
+                send(new Message(MessageType.SESSION_RESUME, sessionToken, String.valueOf(received)));
+                return;
+            }
+            sessionToken = null;
+        } else if (nameSent) {
+            userName = listener.onNameRejected(this, userName);
+            if (userName == null) {
+                close();
+                return;
+            }
+        }
+        nameSent = true;
+        send(new Message(MessageType.USER_NAME, userName));
+    }
+
+    @Override
+    void onClosed() {
+        accepted = false;
+        listener.onClosed(this);
+    }
+
+    //поток с Selector, обслуживающий клиентские соединения
+    public static final class Loop {
+        private final EventLoop loop;
+
+        public Loop(String name) throws IOException {
+            loop = new EventLoop(name);
+            loop.start();
+        }
+
+        public void execute(Runnable task) {
+            loop.execute(task);
+        }
+
+        public boolean inLoop() {
+            return loop.inLoop();
+        }
+
+        //останавливает поток после уже поставленных задач (например, close соединений) и ждет его завершения
+        public void shutdown() throws InterruptedException {
+            loop.execute(loop::interrupt);
+            if (!loop.inLoop())
+                loop.join(TimeUnit.SECONDS.toMillis(1));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package project;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+//Неблокирующее соединение сервера: транспорт NioTransport, рукопожатие и сессия пользователя
+//(те же шаги, что и в Server.Handler) и счетчики ServerMetrics
+class NioConnection extends NioTransport {
+    private final long openedAt = System.nanoTime();
+    private Session session;
+    private IdleMonitor.Watch watch;
+
+    NioConnection(SocketChannel channel, EventLoop loop) throws IOException {
+        super(channel, loop, OutboundQueue.fromConfig());
+        ServerMetrics.SHARED.connectionsOpened.increment();
+    }
+
+    //регистрация в цикле и начало рукопожатия, вызывается из потока цикла
+    @Override
+    void open() throws IOException {
+        register();
+        Log.writeMessage("Установлено новое соединение с удаленным адресом{}", getRemoteSocketAddress());
+        send(new Message(MessageType.NAME_REQUEST, Protocol.offer()));
+    }
+
+    //те же шаги, что и в Server.Handler: рукопожатие, затем обработка сообщений пользователя
+    @Override
+    void onMessage(Message message) throws IOException {
+        ServerMetrics.SHARED.messagesIn.increment();
+        if (session == null) {
+            session = Server.registerUser(this, message);
+            if (session == null) {
+                send(new Message(MessageType.NAME_REQUEST, Protocol.offer()));
+            } else {
+                watch = Server.watchIdle(this);
+                ServerMetrics.SHARED.handshake.record(System.nanoTime() - openedAt);
+                Server.userJoined(session);
+            }
+        } else {
+            watch.touch();
+            Server.processMessage(session, message);
+        }
+    }
+
+    @Override
+    void onRead(int bytes) {
+        ServerMetrics.SHARED.bytesIn.add(bytes);
+    }
+
+    @Override
+    void onWritten(long bytes, int frames) {
+        ServerMetrics.SHARED.bytesOut.add(bytes);
+        ServerMetrics.SHARED.messagesOut.add(frames);
+    }
+
+    @Override
+    void onDropped() {
+        ServerMetrics.SHARED.framesDropped.increment();
+    }
+
+    @Override
+    void onClosed() {
+        ServerMetrics.SHARED.connectionsClosed.increment();
+        if (session != null) {
+            watch.cancel();
+            Server.userLeft(session, this);
+        }
+
+        Log.writeMessage("Соединение с {} закрыто.", getRemoteSocketAddress());
+    }
+}
@@ -0,0 +1,65 @@
+package project;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+//Неблокирующий режим сервера: один поток принимает соединения,
+//небольшое фиксированное число EventLoop обслуживает всех клиентов
+class NioServer implements Closeable {
+    private final int port;
+    private final EventLoop[] loops;
+    private final ServerSocketChannel serverChannel;
+
+    NioServer(int port, int loopCount) throws IOException {
+        this.port = port;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop("chat-loop-" + i);
+        }
+        this.serverChannel = ServerSocketChannel.open();
+    }
+
+    //циклы событий, например в качестве шардов RoomRegistry
+    Executor[] getLoops() {
+        return loops.clone();
+    }
+
+    void run() throws IOException {
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+
+        serverChannel.bind(new InetSocketAddress(port));
+        Log.writeMessage("Сервер запущен (NIO, циклов событий: {})", loops.length);
+
+        int next = 0;
+        while (true) {
+            SocketChannel channel = serverChannel.accept();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            EventLoop loop = loops[next];
+            next = (next + 1) % loops.length;
+            NioConnection connection = new NioConnection(channel, loop);
+            loop.execute(() -> {
+                try {
+                    connection.open();
+                } catch (IOException e) {
+                    Log.writeMessage("Не удалось зарегистрировать соединение {}", connection.getRemoteSocketAddress());
+                    connection.close();
+                }
+            });
+        }
+    }
+
+    //прекращение приема соединений; accept в run завершается исключением
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+    }
+}
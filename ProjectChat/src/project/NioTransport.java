@@ -0,0 +1,286 @@
+package project;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//Неблокирующий транспорт: читает и пишет тот же поток Java-сериализации (или двоичные кадры), что и Connection,
+//но не занимает отдельный поток: чтение и запись выполняет EventLoop, а прочитанные сообщения он передает
+//в onMessage (блокирующего receive, как у Connection, здесь нет). Стороны транспорта - NioConnection сервера
+//и NioClientConnection клиента; метрики сервера считает только первая (через onRead, onWritten, onDropped)
+abstract class NioTransport extends Transport implements EventLoop.SelectionHandler {
+    private static final int MAX_BUFFER_SIZE = BinaryCodec.MAX_FRAME_LENGTH + BinaryCodec.LENGTH_FIELD;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final SocketChannel channel;
+    private final EventLoop loop;
+    private final SocketAddress remoteAddress;
+    private final ObjectStreamFramer framer = new ObjectStreamFramer(BinaryCodec.MAX_FRAME_LENGTH);
+    private final FrameInputStream frameInput = new FrameInputStream();
+    private final OutboundQueue outbound;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    //кадры, записанные в канал не полностью; используются только потоком цикла
+    private ByteBuffer[] pending;
+
+    private ByteBuffer inbound = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ObjectInputStream in;
+    private SelectionKey key;
+    private volatile boolean closed;
+
+    NioTransport(SocketChannel channel, EventLoop loop, OutboundQueue outbound) throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        this.outbound = outbound;
+        this.remoteAddress = channel.getRemoteAddress();
+    }
+
+    //регистрация в цикле (register) и начало рукопожатия, вызывается из потока цикла
+    abstract void open() throws IOException;
+
+    //очередное прочитанное сообщение, вызывается из потока цикла
+    abstract void onMessage(Message message) throws IOException;
+
+    //вызывается один раз из потока цикла, когда канал уже закрыт
+    abstract void onClosed();
+
+    //из канала прочитано bytes байт
+    void onRead(int bytes) {
+    }
+
+    //в канал записано bytes байт, из очереди за эту запись взято frames кадров
+    void onWritten(long bytes, int frames) {
+    }
+
+    //кадр отброшен или не принят из-за переполнения очереди
+    void onDropped() {
+    }
+
+    //регистрация канала в цикле и заголовок потока сериализации, который обе стороны пишут первым
+    final void register() throws IOException {
+        key = loop.register(channel, SelectionKey.OP_READ, this);
+        enqueue(ByteBuffer.wrap(ObjectStreamFramer.streamHeader()));
+    }
+
+    final boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void send(Message message) throws IOException {
+        send(new EncodedMessage(message));
+    }
+
+    //кадр общий для всех получателей, у каждого соединения только своя позиция в нем.
+    //Формат выбирается в момент отправки: сообщения, поставленные до смены протокола, уходят в старом формате
+    @Override
+    public void send(EncodedMessage message) throws IOException {
+        enqueue(ByteBuffer.wrap(message.frame(getProtocolVersion())));
+    }
+
+    @Override
+    public void sendFrame(ByteBuffer frame) throws IOException {
+        enqueue(frame);
+    }
+
+    @Override
+    void disconnectOnOverflow(int burst) {
+        outbound.disconnectOnOverflow(burst);
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public int getOutboundDepth() {
+        ByteBuffer[] unwritten = pending;
+        return outbound.depth() + (unwritten != null ? unwritten.length : 0);
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return outbound.dropped();
+    }
+
+    private void enqueue(ByteBuffer frame) throws IOException {
+        if (closed) return;
+        switch (outbound.offer(frame)) {
+            case OVERFLOW:
+                onDropped();
+                Log.writeMessage("Клиент {} не успевает получать сообщения, соединение закрывается", remoteAddress);
+                close();
+                throw new IOException("Очередь исходящих сообщений переполнена");
+            case DROPPED:
+                onDropped();
+                if (outbound.dropped() == 1)
+                    Log.writeMessage("Клиент {} не успевает получать сообщения, часть сообщений отброшена", remoteAddress);
+                break;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (FlushPolicy.MAX_LATENCY_NANOS > 0)
+                loop.schedule(this::flush, FlushPolicy.MAX_LATENCY_NANOS);
+            else
+                loop.execute(this::flush);
+        }
+    }
+
+    @Override
+    public void onReady(SelectionKey key) {
+        try {
+            if (key.isReadable()) read();
+            if (key.isValid() && key.isWritable()) flush();
+        } catch (IOException | ClassNotFoundException e) {
+            Log.writeMessage("Ошибка при обмене данными с {}", remoteAddress);
+            close();
+        } catch (RuntimeException e) {
+            //ошибка в обработке сообщения одного клиента закрывает только его соединение, а не весь цикл
+            Log.writeMessage("Ошибка при обработке сообщения от {}: {}", remoteAddress, e);
+            close();
+        }
+    }
+
+    private void read() throws IOException, ClassNotFoundException {
+        if (!inbound.hasRemaining()) {
+            if (inbound.capacity() >= MAX_BUFFER_SIZE)
+                throw new IOException("Превышен размер входящего сообщения");
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(inbound.capacity() * 2, MAX_BUFFER_SIZE));
+            inbound.flip();
+            larger.put(inbound);
+            inbound = larger;
+        }
+        int read = channel.read(inbound);
+        if (read < 0) {
+            close();
+            return;
+        }
+        onRead(read);
+
+        inbound.flip();
+        try {
+            if (in == null) {
+                if (inbound.remaining() < ObjectStreamFramer.streamHeader().length) return;
+                frameInput.limit = inbound.position() + ObjectStreamFramer.streamHeader().length;
+                in = new ObjectInputStream(frameInput);
+            }
+            Message message;
+            while (!closed && (message = nextMessage()) != null) {
+                onMessage(message);
+            }
+        } finally {
+            inbound.compact();
+        }
+    }
+
+    //очередное полностью полученное сообщение или null; формат может смениться между двумя сообщениями
+    private Message nextMessage() throws IOException, ClassNotFoundException {
+        if (getProtocolVersion() >= Protocol.BINARY)
+            return BinaryCodec.decode(inbound, getCompression());
+
+        int length = framer.nextFrameLength(inbound);
+        if (length < 0) return null;
+        frameInput.limit = inbound.position() + length;
+        Message message = ObjectStreamFramer.readMessage(in);
+        inbound.position(frameInput.limit);
+        return message;
+    }
+
+    //все накопившиеся кадры уходят одной gathering-записью (до FlushPolicy.BATCH_BYTES);
+    //вызывается только из потока цикла
+    private void flush() {
+        flushScheduled.set(false);
+        if (closed) return;
+        ByteBuffer[] gather = loop.gatherBuffers();
+        int count = 0;
+        try {
+            while (true) {
+                count = 0;
+                int frames = 0;
+                long bytes = 0;
+                if (pending != null) {
+                    for (ByteBuffer buffer : pending) {
+                        gather[count++] = buffer;
+                        bytes += buffer.remaining();
+                    }
+                    pending = null;
+                }
+                ByteBuffer frame;
+                while (count < gather.length && bytes < FlushPolicy.BATCH_BYTES && (frame = outbound.poll()) != null) {
+                    frame = deflate(frame);
+                    gather[count++] = frame;
+                    frames++;
+                    bytes += frame.remaining();
+                }
+                if (count == 0) break;
+
+                onWritten(channel.write(gather, 0, count), frames);
+                int written = 0;
+                while (written < count && !gather[written].hasRemaining()) {
+                    written++;
+                }
+                if (written < count) {
+                    pending = Arrays.copyOfRange(gather, written, count);
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                Arrays.fill(gather, 0, count, null);
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            Log.writeMessage("Не смогли отправить сообщение {}", remoteAddress);
+            close();
+        } finally {
+            Arrays.fill(gather, 0, count, null);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!loop.inLoop()) {
+            loop.execute(this::close);
+            return;
+        }
+        if (closed) return;
+        closed = true;
+        outbound.clear();
+        pending = null;
+        endCompression();
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        onClosed();
+    }
+
+    //ObjectInputStream читает входящий буфер, но не дальше границы текущего кадра
+    private class FrameInputStream extends InputStream {
+        private int limit;
+
+        @Override
+        public int read() {
+            if (inbound.position() >= limit) return -1;
+            return inbound.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            int available = limit - inbound.position();
+            if (available <= 0) return -1;
+            int count = Math.min(length, available);
+            inbound.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return Math.max(0, limit - inbound.position());
+        }
+    }
+}
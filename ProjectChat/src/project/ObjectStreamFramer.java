@@ -0,0 +1,333 @@
+package project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.io.ObjectStreamConstants.*;
+
+//Разбор потока Java-сериализации на кадры без блокировки.
+//ObjectOutputStream не пишет длину объекта, поэтому неблокирующему серверу нужно
+//пройти по грамматике потока и определить, где заканчивается очередной объект,
+//прежде чем отдавать байты в ObjectInputStream.
+class ObjectStreamFramer {
+    private static final Underflow UNDERFLOW = new Underflow();
+    private static final ClassDesc PLAIN_HANDLE = new ClassDesc(null, (byte) 0, new char[0], null);
+
+    private final int maxFrameLength;
+    private List<ClassDesc> handles = new ArrayList<>();
+    private ByteBuffer buffer;
+    private int position;
+    private int limit;
+
+    ObjectStreamFramer(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    //заголовок потока, который ObjectOutputStream пишет при создании
+    static byte[] streamHeader() {
+        return new byte[]{
+                (byte) (STREAM_MAGIC >>> 8), (byte) STREAM_MAGIC,
+                (byte) (STREAM_VERSION >>> 8), (byte) STREAM_VERSION};
+    }
+
+    //сообщение в виде самодостаточного кадра: TC_RESET и объект со всеми описаниями классов.
+    //Такой кадр не ссылается на предыдущие объекты потока и может быть записан в любое соединение
+    static byte[] encodeStandalone(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        byte[] stream = bytes.toByteArray();
+        int headerLength = streamHeader().length;
+        byte[] frame = new byte[stream.length - headerLength + 1];
+        frame[0] = TC_RESET;
+        System.arraycopy(stream, headerLength, frame, 1, stream.length - headerLength);
+        return frame;
+    }
+
+    //очередной объект потока как сообщение; объект другого класса или сообщение без типа - ошибка потока,
+    //а не ClassCastException или NullPointerException в обработке
+    static Message readMessage(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        Object object = in.readObject();
+        if (!(object instanceof Message))
+            throw new StreamCorruptedException("Ожидалось сообщение, получен " + (object == null ? "null" : object.getClass().getName()));
+        Message message = (Message) object;
+        if (message.getType() == null)
+            throw new StreamCorruptedException("Сообщение без типа");
+        return message;
+    }
+
+    //длина очередного объекта верхнего уровня, начиная с buffer.position(), или -1, если объект пришел не полностью
+    int nextFrameLength(ByteBuffer buffer) throws StreamCorruptedException {
+        this.buffer = buffer;
+        this.position = buffer.position();
+        this.limit = buffer.limit();
+        List<ClassDesc> committed = handles;
+        int committedSize = handles.size();
+        try {
+            while (peekByte() == TC_RESET) {
+                position++;
+                handles = new ArrayList<>();
+            }
+            readContent();
+            return position - buffer.position();
+        } catch (Underflow e) {
+            if (position - buffer.position() > maxFrameLength)
+                throw new StreamCorruptedException("Объект превышает " + maxFrameLength + " байт");
+            handles = committed;
+            handles.subList(committedSize, handles.size()).clear();
+            return -1;
+        } finally {
+            this.buffer = null;
+        }
+    }
+
+    private ClassDesc readContent() throws StreamCorruptedException {
+        byte tc = readByte();
+        switch (tc) {
+            case TC_NULL:
+                return null;
+            case TC_REFERENCE:
+                return readHandle();
+            case TC_CLASSDESC:
+                return readClassDescBody();
+            case TC_PROXYCLASSDESC:
+                return readProxyClassDescBody();
+            case TC_OBJECT:
+                readObjectBody();
+                return null;
+            case TC_STRING:
+                skip(readUnsignedShort());
+                handles.add(PLAIN_HANDLE);
+                return null;
+            case TC_LONGSTRING:
+                skip(readLong());
+                handles.add(PLAIN_HANDLE);
+                return null;
+            case TC_ARRAY:
+                readArrayBody();
+                return null;
+            case TC_CLASS:
+                readContent();
+                handles.add(PLAIN_HANDLE);
+                return null;
+            case TC_ENUM:
+                readContent();
+                handles.add(PLAIN_HANDLE);
+                readContent();
+                return null;
+            case TC_BLOCKDATA:
+                skip(readUnsignedByte());
+                return null;
+            case TC_BLOCKDATALONG:
+                skip(readInt());
+                return null;
+            default:
+                throw new StreamCorruptedException(String.format("Неподдерживаемый код типа %02X", tc));
+        }
+    }
+
+    private ClassDesc readHandle() throws StreamCorruptedException {
+        int handle = readInt() - baseWireHandle;
+        if (handle < 0 || handle >= handles.size())
+            throw new StreamCorruptedException("Неверная ссылка на объект " + handle);
+        return handles.get(handle);
+    }
+
+    private ClassDesc readClassDescBody() throws StreamCorruptedException {
+        int handle = handles.size();
+        handles.add(PLAIN_HANDLE);
+        String name = readUtf();
+        skip(8);
+        byte flags = readByte();
+        int count = readUnsignedShort();
+        char[] fieldTypes = new char[count];
+        for (int i = 0; i < count; i++) {
+            fieldTypes[i] = (char) readByte();
+            skip(readUnsignedShort());
+            if (fieldTypes[i] == 'L' || fieldTypes[i] == '[')
+                readContent();
+        }
+        skipAnnotation();
+        ClassDesc desc = new ClassDesc(name, flags, fieldTypes, readContent());
+        handles.set(handle, desc);
+        return desc;
+    }
+
+    private ClassDesc readProxyClassDescBody() throws StreamCorruptedException {
+        int handle = handles.size();
+        handles.add(PLAIN_HANDLE);
+        int count = readInt();
+        for (int i = 0; i < count; i++)
+            skip(readUnsignedShort());
+        skipAnnotation();
+        ClassDesc desc = new ClassDesc(null, SC_SERIALIZABLE, new char[0], readContent());
+        handles.set(handle, desc);
+        return desc;
+    }
+
+    private void readObjectBody() throws StreamCorruptedException {
+        ClassDesc desc = readContent();
+        if (desc == null)
+            throw new StreamCorruptedException("Объект без описания класса");
+        handles.add(PLAIN_HANDLE);
+        if ((desc.flags & SC_EXTERNALIZABLE) != 0) {
+            if ((desc.flags & SC_BLOCK_DATA) == 0)
+                throw new StreamCorruptedException("Externalizable без блочного режима не поддерживается");
+            skipAnnotation();
+            return;
+        }
+        readClassData(desc);
+    }
+
+    //данные класса пишутся начиная с самого верхнего сериализуемого предка
+    private void readClassData(ClassDesc desc) throws StreamCorruptedException {
+        if (desc == null) return;
+        readClassData(desc.superDesc);
+        for (char type : desc.fieldTypes) {
+            readValue(type);
+        }
+        if ((desc.flags & SC_WRITE_METHOD) != 0)
+            skipAnnotation();
+    }
+
+    private void readArrayBody() throws StreamCorruptedException {
+        ClassDesc desc = readContent();
+        if (desc == null || desc.name == null || desc.name.length() < 2)
+            throw new StreamCorruptedException("Массив без описания класса");
+        handles.add(PLAIN_HANDLE);
+        int length = readInt();
+        if (length < 0)
+            throw new StreamCorruptedException("Отрицательная длина массива");
+        char type = desc.name.charAt(1);
+        int size = primitiveSize(type);
+        if (size > 0) {
+            skip((long) size * length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                readContent();
+            }
+        }
+    }
+
+    private void readValue(char type) throws StreamCorruptedException {
+        int size = primitiveSize(type);
+        if (size > 0) skip(size);
+        else readContent();
+    }
+
+    private static int primitiveSize(char type) {
+        switch (type) {
+            case 'B':
+            case 'Z':
+                return 1;
+            case 'C':
+            case 'S':
+                return 2;
+            case 'I':
+            case 'F':
+                return 4;
+            case 'J':
+            case 'D':
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    private void skipAnnotation() throws StreamCorruptedException {
+        while (peekByte() != TC_ENDBLOCKDATA) {
+            readContent();
+        }
+        position++;
+    }
+
+    private String readUtf() throws StreamCorruptedException {
+        int length = readUnsignedShort();
+        require(length);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        position += length;
+        //имена классов в потоке - модифицированный UTF-8, для ASCII он совпадает с обычным
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private byte peekByte() {
+        require(1);
+        return buffer.get(position);
+    }
+
+    private byte readByte() {
+        require(1);
+        return buffer.get(position++);
+    }
+
+    private int readUnsignedByte() {
+        return readByte() & 0xFF;
+    }
+
+    private int readUnsignedShort() {
+        require(2);
+        int value = buffer.getShort(position) & 0xFFFF;
+        position += 2;
+        return value;
+    }
+
+    private int readInt() {
+        require(4);
+        int value = buffer.getInt(position);
+        position += 4;
+        return value;
+    }
+
+    private long readLong() {
+        require(8);
+        long value = buffer.getLong(position);
+        position += 8;
+        return value;
+    }
+
+    private void skip(long count) throws StreamCorruptedException {
+        if (count < 0 || count > maxFrameLength)
+            throw new StreamCorruptedException("Неверная длина данных " + count);
+        require((int) count);
+        position += (int) count;
+    }
+
+    private void require(int count) {
+        if (limit - position < count) throw UNDERFLOW;
+    }
+
+    private static class ClassDesc {
+        final String name;
+        final byte flags;
+        final char[] fieldTypes;
+        final ClassDesc superDesc;
+
+        ClassDesc(String name, byte flags, char[] fieldTypes, ClassDesc superDesc) {
+            this.name = name;
+            this.flags = flags;
+            this.fieldTypes = fieldTypes;
+            this.superDesc = superDesc;
+        }
+    }
+
+    //сигнал о том, что объект пришел не полностью. Бросается на каждом неполном чтении, поэтому это
+    //один общий экземпляр без стека вызовов (writableStackTrace = false)
+    private static class Underflow extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Underflow() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package project;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+//Ограниченная очередь исходящих кадров одного соединения. Каждый ByteBuffer принадлежит только
+//этой очереди (общий массив байт оборачивается для каждого соединения заново), позиция в нем - прогресс записи.
+//Рассылающий поток только кладет кадр в очередь, запись в сокет выполняет писатель соединения,
+//поэтому медленный клиент не задерживает остальных. Что делать при переполнении, решает OverflowPolicy.
+//Очередь есть и у клиентских соединений, поэтому счетчики сервера (framesDropped) увеличивает ее владелец.
+final class OutboundQueue {
+    enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        DISCONNECT
+    }
+
+    enum Offer {
+        QUEUED,
+        DROPPED,
+        OVERFLOW
+    }
+
+    //-Dchat.outbound.capacity и -Dchat.outbound.policy=drop-oldest|drop-newest|disconnect
+    static final int CAPACITY = Integer.getInteger("chat.outbound.capacity", 1024);
+    static final OverflowPolicy POLICY = OverflowPolicy.valueOf(
+            System.getProperty("chat.outbound.policy", "drop-oldest").trim().toUpperCase().replace('-', '_'));
+
+    private final Queue<ByteBuffer> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final int baseCapacity;
+    private volatile int capacity;
+    private volatile OverflowPolicy policy;
+
+    OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.baseCapacity = capacity;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    static OutboundQueue fromConfig() {
+        return new OutboundQueue(CAPACITY, POLICY);
+    }
+
+    //смена политики после рукопожатия, когда соединение стало соединением сессии (см. Transport.disconnectOnOverflow)
+    void disconnectOnOverflow(int burst) {
+        capacity = baseCapacity + burst;
+        policy = OverflowPolicy.DISCONNECT;
+    }
+
+    Offer offer(ByteBuffer frame) {
+        if (depth.incrementAndGet() > capacity) {
+            switch (policy) {
+                case DROP_NEWEST:
+                    depth.decrementAndGet();
+                    dropped.increment();
+                    return Offer.DROPPED;
+                case DISCONNECT:
+                    depth.decrementAndGet();
+                    dropped.increment();
+                    return Offer.OVERFLOW;
+                case DROP_OLDEST:
+                    //писатель мог успеть забрать кадры: тогда отбрасывать нечего и кадр просто встает в очередь
+                    boolean evicted = frames.poll() != null;
+                    frames.add(frame);
+                    if (!evicted) return Offer.QUEUED;
+                    depth.decrementAndGet();
+                    dropped.increment();
+                    return Offer.DROPPED;
+            }
+        }
+        frames.add(frame);
+        return Offer.QUEUED;
+    }
+
+    ByteBuffer poll() {
+        ByteBuffer frame = frames.poll();
+        if (frame != null) depth.decrementAndGet();
+        return frame;
+    }
+
+    boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    void clear() {
+        while (poll() != null) {
+        }
+    }
+
+    int depth() {
+        return Math.max(0, depth.get());
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+}
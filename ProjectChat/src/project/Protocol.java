@@ -0,0 +1,57 @@
+package project;
+
+//Версии протокола, согласуемые при рукопожатии.
+//Сервер указывает в NAME_REQUEST максимальную поддерживаемую версию, клиент отвечает PROTOCOL
+//с выбранной версией, и после этого сообщения обе стороны переходят на новый формат.
+//Клиенты, которые не знают о версиях, просто отвечают USER_NAME и остаются на Java-сериализации.
+public final class Protocol {
+    public static final int SERIALIZATION = 1;
+    public static final int BINARY = 2;
+    //формат кадров как у BINARY, дополнительно сервер выдает токен сессии, и клиент может возобновить ее после обрыва
+    public static final int SESSIONS = 3;
+    //клиент отвечает PONG на PING сервера, и сервер закрывает соединения, которые перестали отвечать
+    public static final int HEARTBEAT = 4;
+    //клиент понимает PRIVATE; более старым клиентам личные сообщения приходят обычным TEXT
+    public static final int PRIVATE_MESSAGES = 5;
+    //состав чата приходит одним USER_LIST при входе, а его изменения - пачками USERS_CHANGED
+    public static final int PRESENCE_SYNC = 6;
+    //клиент понимает THROTTLED, более старым клиентам уведомление об ограничении частоты приходит обычным TEXT
+    public static final int THROTTLING = 7;
+    //обе стороны принимают сжатые кадры (FrameCompression); клиент, которому нужно сжатие, добавляет
+    //в PROTOCOL второе поле DEFLATE, и после этого обе стороны сжимают большие кадры
+    public static final int COMPRESSION = 8;
+    //сервер отвечает на SEARCH; более старому серверу клиент запрос не отправляет
+    public static final int SEARCH = 9;
+    //перед плавной остановкой сервер шлет RECONNECT_HINT с задержкой переподключения, а сессии продолжаются
+    //на перезапущенном сервере
+    public static final int RECONNECT_HINT = 10;
+    public static final int CURRENT = RECONNECT_HINT;
+
+    //ограничение версии для этой JVM, например -Dchat.protocol=1 отключает двоичный формат
+    public static final int MAX = clamp(Integer.getInteger("chat.protocol", CURRENT));
+    //-Dchat.compression=false: клиент не просит сжатие, а сервер отказывает в нем (сжатые кадры все равно принимаются)
+    public static final boolean COMPRESS = Boolean.parseBoolean(System.getProperty("chat.compression", "true"));
+    public static final String DEFLATE = "deflate";
+
+    private Protocol() {
+    }
+
+    //данные NAME_REQUEST: предлагаемая версия или null, если предлагать нечего
+    public static String offer() {
+        return MAX > SERIALIZATION ? String.valueOf(MAX) : null;
+    }
+
+    //версия, на которую можно перейти, если другая сторона поддерживает offered
+    public static int negotiate(String offered) {
+        if (offered == null) return SERIALIZATION;
+        try {
+            return clamp(Math.min(Integer.parseInt(offered.trim()), MAX));
+        } catch (NumberFormatException e) {
+            return SERIALIZATION;
+        }
+    }
+
+    private static int clamp(int version) {
+        return Math.max(SERIALIZATION, Math.min(CURRENT, version));
+    }
+}
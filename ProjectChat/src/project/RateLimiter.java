@@ -0,0 +1,39 @@
+package project;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Ограничение частоты сообщений пользователя: корзина токенов в форме GCRA. Вместо числа токенов хранится
+//момент, когда корзина снова станет полной, поэтому проверка - одно чтение System.nanoTime и один CAS,
+//без блокировок и таймеров. -Dchat.rate.messages - сообщений в секунду (по умолчанию 20, 0 - без ограничения),
+//-Dchat.rate.burst - сколько сообщений можно отправить подряд без ожидания (по умолчанию 40).
+final class RateLimiter {
+    static final double RATE = Double.parseDouble(System.getProperty("chat.rate.messages", "20"));
+    static final int BURST = Integer.getInteger("chat.rate.burst", 40);
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    //теоретическое время прибытия следующего сообщения (по System.nanoTime)
+    private final AtomicLong nextFree = new AtomicLong(System.nanoTime());
+
+    RateLimiter(double perSecond, int burst) {
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        this.burstNanos = intervalNanos * Math.max(1, burst);
+    }
+
+    //null, если ограничение отключено
+    static RateLimiter fromConfig() {
+        return RATE > 0 ? new RateLimiter(RATE, BURST) : null;
+    }
+
+    //0, если сообщение можно принять, иначе через сколько наносекунд освободится место
+    long tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = nextFree.get();
+            long next = (current - now > 0 ? current : now) + intervalNanos;
+            if (next - now > burstNanos) return next - now - burstNanos;
+            if (nextFree.compareAndSet(current, next)) return 0;
+        }
+    }
+}
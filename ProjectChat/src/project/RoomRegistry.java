@@ -0,0 +1,129 @@
+package project;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+//Комнаты чата. Каждая комната принадлежит одному шарду; составом комнаты и рассылкой в нее
+//занимается только поток этого шарда (в режиме nio - цикл событий), поэтому блокировки не нужны,
+//а сообщение в комнату стоит O(размер комнаты), а не O(число пользователей сервера).
+final class RoomRegistry {
+    static final int MAX_ROOM_NAME_LENGTH = 64;
+
+    private final Shard[] shards;
+    //комнаты каждого соединения - чтобы при отключении выйти из всех
+    private final Map<FrameSink, Set<String>> roomsByConnection = new ConcurrentHashMap<>();
+
+    RoomRegistry(Executor[] executors) {
+        this.shards = new Shard[executors.length];
+        for (int i = 0; i < executors.length; i++) {
+            shards[i] = new Shard(executors[i]);
+        }
+    }
+
+    //шарды на собственных однопоточных исполнителях, для режима threads
+    static RoomRegistry withOwnThreads(int count) {
+        Executor[] executors = new Executor[Math.max(1, count)];
+        for (int i = 0; i < executors.length; i++) {
+            String name = "chat-room-shard-" + i;
+            executors[i] = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return new RoomRegistry(executors);
+    }
+
+    static boolean isValidName(String room) {
+        return room != null && !room.isBlank() && room.length() <= MAX_ROOM_NAME_LENGTH
+                && room.indexOf(Message.FIELD_SEPARATOR) < 0;
+    }
+
+    //список комнат соединения меняется сразу, а состав комнаты - в потоке шарда;
+    //задачи шарда выполняются по порядку, поэтому leaveAll всегда идет после предшествующего join
+    void join(FrameSink connection, String room) {
+        roomsByConnection.computeIfAbsent(connection, c -> ConcurrentHashMap.newKeySet()).add(room);
+        shardFor(room).executor.execute(() -> {
+            if (shardFor(room).rooms.computeIfAbsent(room, r -> new LinkedHashSet<>()).add(connection))
+                send(connection, new EncodedMessage(new Message(MessageType.ROOM_JOIN, room)));
+        });
+    }
+
+    //вход без подтверждения ROOM_JOIN: пользователь уже был в комнате до перезапуска сервера
+    void rejoin(FrameSink connection, String room) {
+        roomsByConnection.computeIfAbsent(connection, c -> ConcurrentHashMap.newKeySet()).add(room);
+        Shard shard = shardFor(room);
+        shard.executor.execute(() -> shard.rooms.computeIfAbsent(room, r -> new LinkedHashSet<>()).add(connection));
+    }
+
+    Set<String> roomsOf(FrameSink connection) {
+        Set<String> rooms = roomsByConnection.get(connection);
+        return rooms == null ? Set.of() : rooms;
+    }
+
+    void leave(FrameSink connection, String room) {
+        Set<String> rooms = roomsByConnection.get(connection);
+        if (rooms == null || !rooms.remove(room)) return;
+        shardFor(room).executor.execute(() -> {
+            if (shardFor(room).remove(room, connection))
+                send(connection, new EncodedMessage(new Message(MessageType.ROOM_LEAVE, room)));
+        });
+    }
+
+    //рассылка участникам комнаты; писать в комнату может только ее участник
+    void post(FrameSink connection, String userName, String room, String text) {
+        Shard shard = shardFor(room);
+        shard.executor.execute(() -> {
+            Set<FrameSink> members = shard.rooms.get(room);
+            if (members == null || !members.contains(connection)) return;
+            EncodedMessage message = new EncodedMessage(new Message(MessageType.ROOM_TEXT, room, userName + ": " + text));
+            for (FrameSink member : members) {
+                send(member, message);
+            }
+        });
+    }
+
+    void leaveAll(FrameSink connection) {
+        Set<String> rooms = roomsByConnection.remove(connection);
+        if (rooms == null) return;
+        for (String room : rooms) {
+            Shard shard = shardFor(room);
+            shard.executor.execute(() -> shard.remove(room, connection));
+        }
+    }
+
+    private Shard shardFor(String room) {
+        return shards[(room.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private static void send(FrameSink connection, EncodedMessage message) {
+        try {
+            connection.send(message);
+        } catch (IOException e) {
+            Log.writeMessage("Не смогли отправить сообщение {}", connection.getRemoteSocketAddress());
+        }
+    }
+
+    private static class Shard {
+        final Executor executor;
+        //доступны только потоку шарда
+        final Map<String, Set<FrameSink>> rooms = new HashMap<>();
+
+        Shard(Executor executor) {
+            this.executor = executor;
+        }
+
+        boolean remove(String room, FrameSink connection) {
+            Set<FrameSink> members = rooms.get(room);
+            if (members == null || !members.remove(connection)) return false;
+            if (members.isEmpty()) rooms.remove(room);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package project;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//Полнотекстовый поиск по общему чату: обратный индекс "слово -> смещения сообщений в журнале".
+//Слова - последовательности букв и цифр в нижнем регистре (ё считается за е), автор сообщения
+//дополнительно индексируется как "@имя". В запросе все слова обязательны, "слово*" ищет по началу слова
+//(не короче MIN_PREFIX символов), "@имя" - сообщения автора. Результат - самые новые совпадения.
+//Индекс хранится только в памяти: строится из журнала при запуске и дополняется при записи в журнал.
+final class SearchIndex {
+    //-Dchat.search.results - сколько совпадений возвращает один запрос
+    static final int MAX_RESULTS = Integer.getInteger("chat.search.results", 20);
+    //длинные слова обрезаются, чтобы в индекс не попадали целиком строки вроде base64
+    private static final int MAX_TERM_LENGTH = 32;
+    private static final int MIN_PREFIX = 3;
+    //сколько слов подставляется вместо "слово*"
+    private static final int MAX_PREFIX_TERMS = 64;
+    //раз в столько сообщений из индекса удаляются смещения, которые журнал уже удалил
+    static final int TRIM_INTERVAL = 65_536;
+
+    private final TreeMap<String, PostingList> terms = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long messages;
+
+    //индекс всех сообщений, которые сейчас хранит журнал; вызывается до того, как в журнал начнут писать
+    static SearchIndex build(MessageJournal journal) {
+        long start = System.nanoTime();
+        SearchIndex index = new SearchIndex();
+        long from = journal.oldestOffset();
+        while (true) {
+            MessageJournal.Range range = journal.read(from, MessageJournal.MAX_HISTORY);
+            if (range.frames.isEmpty()) break;
+            long offset = range.from;
+            for (ByteBuffer frame : range.frames) {
+                try {
+                    index.add(offset, terms(MessageJournal.decode(frame).getData()));
+                } catch (StreamCorruptedException e) {
+                    Log.writeMessage("Запись журнала {} не прочитана и не попадет в поиск", offset);
+                }
+                offset++;
+            }
+            from = range.next();
+        }
+        if (index.messages > 0)
+            Log.writeMessage("Поисковый индекс построен за {} мс, сообщений: {}",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), index.messages);
+        return index;
+    }
+
+    //слова сообщения "имя: текст" для add; вызывается до блокировки журнала, чтобы не разбирать текст под ней
+    static Set<String> terms(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        if (text == null) return result;
+        int colon = text.indexOf(": ");
+        if (colon > 0) {
+            result.add(authorTerm(text.substring(0, colon)));
+            text = text.substring(colon + 2);
+        }
+        result.addAll(words(text));
+        return result;
+    }
+
+    //смещения должны добавляться по возрастанию
+    void add(long offset, Set<String> words) {
+        lock.writeLock().lock();
+        try {
+            for (String word : words) {
+                terms.computeIfAbsent(word, w -> new PostingList()).add(offset);
+            }
+            messages++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //удаление смещений меньше floor - сообщений, которые журнал уже удалил
+    void trim(long floor) {
+        lock.writeLock().lock();
+        try {
+            terms.values().removeIf(list -> list.trimBefore(floor));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //не больше limit смещений не меньше floor по убыванию, в сообщениях которых есть все слова запроса
+    long[] search(String query, int limit, long floor) {
+        lock.readLock().lock();
+        try {
+            List<Clause> clauses = new ArrayList<>();
+            for (String token : query.trim().split("\\s+")) {
+                if (token.isEmpty()) continue;
+                List<Clause> parsed = clauses(token);
+                if (parsed == null) return new long[0];
+                clauses.addAll(parsed);
+            }
+            if (clauses.isEmpty()) return new long[0];
+
+            // Кандидаты дает самое редкое слово, остальные только проверяются
+            clauses.sort(Comparator.comparingLong(Clause::size));
+            Cursor candidates = new Cursor(clauses.get(0).lists);
+            long[] block = new long[PostingList.BLOCK];
+            long[] found = new long[limit];
+            int count = 0;
+            long offset;
+            next:
+            while (count < limit && (offset = candidates.next()) >= floor) {
+                for (int i = 1; i < clauses.size(); i++) {
+                    if (!clauses.get(i).contains(offset, block)) continue next;
+                }
+                found[count++] = offset;
+            }
+            return Arrays.copyOf(found, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //условия одного слова запроса; null, если по нему заведомо ничего не найдется. Вызывается под lock
+    private List<Clause> clauses(String token) {
+        List<Clause> result = new ArrayList<>();
+        if (token.startsWith("@")) {
+            PostingList list = terms.get(authorTerm(token.substring(1)));
+            if (list == null) return null;
+            result.add(new Clause(List.of(list)));
+            return result;
+        }
+        List<String> words = words(token);
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            List<PostingList> lists = new ArrayList<>();
+            if (i == words.size() - 1 && token.endsWith("*") && word.length() >= MIN_PREFIX) {
+                Iterator<PostingList> matches = terms.subMap(word, word + Character.MAX_VALUE).values().iterator();
+                while (matches.hasNext() && lists.size() < MAX_PREFIX_TERMS) {
+                    lists.add(matches.next());
+                }
+            } else {
+                PostingList list = terms.get(word);
+                if (list != null) lists.add(list);
+            }
+            if (lists.isEmpty()) return null;
+            result.add(new Clause(lists));
+        }
+        return result;
+    }
+
+    private static String authorTerm(String name) {
+        String term = "@" + name.trim().toLowerCase(Locale.ROOT);
+        return term.length() > MAX_TERM_LENGTH + 1 ? term.substring(0, MAX_TERM_LENGTH + 1) : term;
+    }
+
+    private static List<String> words(String text) {
+        List<String> result = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); ) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            i += Character.charCount(codePoint);
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (word.length() < MAX_TERM_LENGTH) {
+                    codePoint = Character.toLowerCase(codePoint);
+                    word.appendCodePoint(codePoint == 'ё' ? 'е' : codePoint);
+                }
+            } else if (word.length() > 0) {
+                result.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return result;
+    }
+
+    //одно слово запроса: список смещений слова или объединение списков для "слово*"
+    private static final class Clause {
+        final List<PostingList> lists;
+
+        Clause(List<PostingList> lists) {
+            this.lists = lists;
+        }
+
+        long size() {
+            long size = 0;
+            for (PostingList list : lists) {
+                size += list.size;
+            }
+            return size;
+        }
+
+        boolean contains(long offset, long[] block) {
+            for (PostingList list : lists) {
+                if (list.contains(offset, block)) return true;
+            }
+            return false;
+        }
+    }
+
+    //обход объединения списков от новых смещений к старым без повторов
+    private static final class Cursor {
+        private final PostingList[] lists;
+        private final long[][] blocks;
+        private final int[] blockIndex;
+        private final int[] position;
+        private final long[] heads;
+
+        Cursor(List<PostingList> lists) {
+            this.lists = lists.toArray(new PostingList[0]);
+            this.blocks = new long[this.lists.length][PostingList.BLOCK];
+            this.blockIndex = new int[this.lists.length];
+            this.position = new int[this.lists.length];
+            this.heads = new long[this.lists.length];
+            for (int i = 0; i < this.lists.length; i++) {
+                blockIndex[i] = this.lists[i].blocks;
+                position[i] = -1;
+                advance(i);
+            }
+        }
+
+        //следующее смещение по убыванию или -1
+        long next() {
+            long max = -1;
+            for (long head : heads) {
+                max = Math.max(max, head);
+            }
+            if (max < 0) return -1;
+            for (int i = 0; i < heads.length; i++) {
+                if (heads[i] == max) advance(i);
+            }
+            return max;
+        }
+
+        private void advance(int i) {
+            while (position[i] < 0) {
+                if (--blockIndex[i] < 0) {
+                    heads[i] = -1;
+                    return;
+                }
+                position[i] = lists[i].decodeBlock(blockIndex[i], blocks[i]) - 1;
+            }
+            heads[i] = blocks[i][position[i]--];
+        }
+    }
+
+    //смещения одного слова по возрастанию блоками по BLOCK значений. Первое значение блока хранится в blockFirst,
+    //остальные - разностью с предыдущим в varint (обычно 1-3 байта), поэтому поиск смещения декодирует один блок
+    private static final class PostingList {
+        static final int BLOCK = 128;
+
+        private byte[] bytes = new byte[8];
+        private int length;
+        private long[] blockFirst = new long[1];
+        private int[] blockStart = new int[1];
+        private int blocks;
+        private int lastBlockSize;
+        private int size;
+        private long last = -1;
+
+        void add(long offset) {
+            if (offset <= last) return;
+            if (blocks == 0 || lastBlockSize == BLOCK) {
+                if (blocks == blockFirst.length) {
+                    blockFirst = Arrays.copyOf(blockFirst, blocks * 2);
+                    blockStart = Arrays.copyOf(blockStart, blocks * 2);
+                }
+                blockFirst[blocks] = offset;
+                blockStart[blocks] = length;
+                blocks++;
+                lastBlockSize = 1;
+            } else {
+                writeVarint(offset - last);
+                lastBlockSize++;
+            }
+            last = offset;
+            size++;
+        }
+
+        //значения блока по возрастанию в target; возвращает их число
+        int decodeBlock(int block, long[] target) {
+            long value = blockFirst[block];
+            target[0] = value;
+            int count = 1;
+            int end = block + 1 < blocks ? blockStart[block + 1] : length;
+            for (int position = blockStart[block]; position < end; ) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[position++];
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                value += delta;
+                target[count++] = value;
+            }
+            return count;
+        }
+
+        boolean contains(long offset, long[] block) {
+            if (blocks == 0 || offset < blockFirst[0] || offset > last) return false;
+            int index = Arrays.binarySearch(blockFirst, 0, blocks, offset);
+            if (index >= 0) return true;
+            int count = decodeBlock(-index - 2, block);
+            return Arrays.binarySearch(block, 0, count, offset) >= 0;
+        }
+
+        //удаляет целые блоки со смещениями меньше floor; true, если меньше floor весь список
+        boolean trimBefore(long floor) {
+            if (last < floor) return true;
+            int drop = 0;
+            while (drop + 1 < blocks && blockFirst[drop + 1] <= floor) {
+                drop++;
+            }
+            if (drop == 0) return false;
+            int cut = blockStart[drop];
+            System.arraycopy(bytes, cut, bytes, 0, length - cut);
+            length -= cut;
+            blocks -= drop;
+            System.arraycopy(blockFirst, drop, blockFirst, 0, blocks);
+            System.arraycopy(blockStart, drop, blockStart, 0, blocks);
+            for (int i = 0; i < blocks; i++) {
+                blockStart[i] -= cut;
+            }
+            //удаляются только полные блоки: неполным может быть лишь последний
+            size -= drop * BLOCK;
+            return false;
+        }
+
+        private void writeVarint(long value) {
+            if (length + 10 > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 10));
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+    }
+}
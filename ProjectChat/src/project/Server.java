@@ -1,32 +1,253 @@
 package project;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.StreamCorruptedException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Server {
-    private static Map<String, Connection> connectionMap = new ConcurrentHashMap<>();
+    //режим работы: threads - поток на соединение (платформенный или виртуальный, см. ConnectionThreads),
+    //nio - неблокирующие циклы событий
+    private static final String MODE = System.getProperty("chat.server.mode", "threads");
+    private static final int NIO_LOOPS = Integer.getInteger("chat.nio.loops", Runtime.getRuntime().availableProcessors());
+    private static final int ROOM_SHARDS = Integer.getInteger("chat.room.shards", Runtime.getRuntime().availableProcessors());
+    //изменения состава чата копятся -Dchat.presence.batch.ms миллисекунд и рассылаются одним проходом по соединениям
+    private static final long PRESENCE_BATCH_MILLIS = Long.getLong("chat.presence.batch.ms", 250);
+    //USER_LIST и USERS_CHANGED делятся на части примерно такого числа символов, чтобы не превысить размер кадра
+    private static final int PRESENCE_PART_CHARS = 128 * 1024;
+    //текст найденного сообщения в ответе SEARCH обрезается до этой длины
+    private static final int SEARCH_RESULT_CHARS = 1000;
+    //плавная остановка: клиентам предлагается переподключиться через -Dchat.drain.delay.ms плюс случайную
+    //добавку до -Dchat.drain.spread.ms, исходящие очереди дописываются не дольше -Dchat.drain.ms
+    private static final long DRAIN_DELAY_MILLIS = Long.getLong("chat.drain.delay.ms", 1000);
+    private static final long DRAIN_SPREAD_MILLIS = Long.getLong("chat.drain.spread.ms", 5000);
+    private static final long DRAIN_MILLIS = Long.getLong("chat.drain.ms", 5000);
+
+    //сессии пользователей по именам; сессия переживает переподключение клиента, см. Session
+    private static Map<String, Session> connectionMap = new ConcurrentHashMap<>();
+    //таймеры ожидания переподключения и простоя соединений
+    private static final TimingWheel timers = new TimingWheel("chat-timers", 100, 512);
+    private static final SessionRegistry sessions = new SessionRegistry(timers, Server::sessionEnded);
+    private static final IdleMonitor idleMonitor = new IdleMonitor(timers);
+    //еще не разосланные изменения состава чата: "+имя" или "-имя" в порядке событий. Очередь, номер следующего
+    //изменения и рассылка защищены presenceLock, чтобы список участников и изменения после него шли согласованно
+    private static final List<String> pendingPresence = new ArrayList<>();
+    private static long presenceSequence;
+    private static boolean presenceScheduled;
+    private static final Lock presenceLock = new ReentrantLock();
+    //писатели исходящих очередей соединений в режиме threads
+    private static final Executor writers = ConnectionThreads.newWriterExecutor();
+    //комнаты; в режиме nio шардами служат циклы событий
+    private static RoomRegistry rooms;
+    //журнал сообщений общего чата для выдачи истории; null, если журнал отключен или не открылся
+    private static MessageJournal journal;
+    //поиск по журналу; есть, если есть журнал
+    private static SearchIndex search;
+    //запись и чтение журнала (история, поиск) и отправка другим узлам кластера: медленный диск или узел
+    //задерживает только этот поток, а не потоки соединений и циклы событий. Один поток - записи журнала
+    //и сообщения другим узлам идут в порядке поступления
+    private static final ExecutorService journalExecutor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "chat-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //личные сообщения пользователям не в сети
+    private static final Mailboxes mailboxes = new Mailboxes();
+    //связь с другими узлами кластера; без -Dchat.cluster.port узел работает один
+    private static ClusterRelay cluster = ClusterRelay.NONE;
+    //пользователи других узлов по узлам и число узлов, на которых занято каждое имя: при одновременном входе
+    //на двух узлах имя может быть занято дважды, пока один из узлов не уступит. Изменяются под presenceLock
+    private static final Map<String, Set<String>> remoteUsers = new HashMap<>();
+    private static final Map<String, Integer> remoteNames = new ConcurrentHashMap<>();
+    //список пользователей узла, передаваемый частями после установки связи; под presenceLock
+    private static final Map<String, Set<String>> remoteSnapshots = new HashMap<>();
+    //изменения состава этого узла для других узлов; рассылаются вместе с pendingPresence
+    private static final List<String> pendingRelay = new ArrayList<>();
+    //прием соединений (ServerSocket или NioServer), закрывается при плавной остановке
+    private static volatile Closeable acceptor;
+    private static volatile boolean draining;
 
     public static void main(String[] args) throws IOException {
         ConsoleHelper.writeMessage("Введите номер порта сервера");
         int port = ConsoleHelper.readInt();
 
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            ConsoleHelper.writeMessage("Сервер запущен");
+        try {
+            journal = MessageJournal.fromConfig();
+        } catch (IOException e) {
+            Log.writeMessage("Не удалось открыть журнал сообщений, история будет недоступна");
+        }
+        // Индекс строится до запуска связи кластера и приема соединений: дальше его дополняет appendToJournal
+        if (journal != null)
+            search = SearchIndex.build(journal);
+        try {
+            ServerMetrics.SHARED.start(timers, connectionMap::values);
+        } catch (IOException e) {
+            Log.writeMessage("Не удалось запустить HTTP-сервер метрик");
+        }
+        List<SessionSnapshot> restored = restoreSessions();
+        try {
+            cluster = TcpMeshRelay.fromConfig(port, writers);
+            cluster.start(new ClusterPeers());
+        } catch (IOException e) {
+            Log.writeMessage("Не удалось запустить связь кластера, узел работает один");
+            cluster = ClusterRelay.NONE;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(Server::drain, "chat-drain"));
+
+        if ("nio".equals(MODE)) {
+            try (NioServer server = new NioServer(port, NIO_LOOPS)) {
+                rooms = new RoomRegistry(server.getLoops());
+                rejoinRooms(restored);
+                acceptor = server;
+                server.run();
+            } catch (Exception e) {
+                if (!draining)
+                    Log.writeMessage("Произошла ошибка при запуске либо работе сервера");
+            }
+            return;
+        }
+
+        rooms = RoomRegistry.withOwnThreads(ROOM_SHARDS);
+        rejoinRooms(restored);
+        // Сокеты считают переданные байты для ServerMetrics
+        try (ServerSocket serverSocket = MeteredSocket.serverSocket(port)) {
+            acceptor = serverSocket;
+            Log.writeMessage(ConnectionThreads.isVirtual()
+                    ? "Сервер запущен (виртуальные потоки)"
+                    : "Сервер запущен");
 
             while (true) {
                 Socket socket = serverSocket.accept();
-                new Handler(socket).start();
+                ConnectionThreads.start(new Handler(socket), false);
             }
         } catch (Exception e) {
-            ConsoleHelper.writeMessage("Произошла ошибка при запуске либо работе сервера");
+            if (!draining)
+                Log.writeMessage("Произошла ошибка при запуске либо работе сервера");
         }
     }
 
+    //сессии, сохраненные прежним процессом при плавной остановке: имена заняты, пока пользователи не вернутся
+    //или не истечет SessionRegistry.GRACE_MILLIS. Вызывается до запуска связи кластера и приема соединений,
+    //поэтому другие узлы узнают эти имена из первого же списка пользователей узла
+    private static List<SessionSnapshot> restoreSessions() {
+        List<SessionSnapshot> restored = new ArrayList<>();
+        try {
+            for (SessionSnapshot snapshot : SessionSnapshot.load()) {
+                Session session = snapshot.session;
+                if (connectionMap.putIfAbsent(session.getUserName(), session) != null) continue;
+                presenceLock.lock();
+                try {
+                    // Изменения состава с этого момента попадут в буфер сессии и будут досланы при возобновлении
+                    session.setPresenceFrom(presenceSequence);
+                } finally {
+                    presenceLock.unlock();
+                }
+                sessions.restore(session);
+                restored.add(snapshot);
+            }
+        } catch (IOException e) {
+            Log.writeMessage("Не удалось прочитать сессии прежнего запуска");
+        }
+        if (!restored.isEmpty())
+            Log.writeMessage("Восстановлено сессий прежнего запуска: {}", restored.size());
+        return restored;
+    }
 
-    private static class Handler extends Thread {
+    //комнаты восстановленных сессий; вызывается, когда rooms уже создан
+    private static void rejoinRooms(List<SessionSnapshot> restored) {
+        for (SessionSnapshot snapshot : restored) {
+            for (String room : snapshot.rooms) {
+                if (RoomRegistry.isValidName(room)) rooms.rejoin(snapshot.session, room);
+            }
+        }
+    }
+
+    //Плавная остановка по сигналу завершения процесса (SIGTERM, Ctrl+C), например при поочередном обновлении узлов.
+    //Новые соединения не принимаются; клиенты с Protocol.RECONNECT_HINT получают задержку переподключения
+    //со случайным разбросом, чтобы не вернуться на перезапущенный сервер все в одно мгновение; исходящие очереди
+    //дописываются, затем соединения закрываются, а сессии сохраняются для следующего процесса (SessionSnapshot)
+    private static void drain() {
+        if (rooms == null) return;
+        draining = true;
+        try {
+            if (acceptor != null) acceptor.close();
+        } catch (IOException ignored) {
+        }
+
+        List<Session> connected = new ArrayList<>(connectionMap.values());
+        Log.writeMessage("Сервер останавливается, пользователей: {}", connected.size());
+        for (Session session : connected) {
+            if (session.getProtocolVersion() < Protocol.RECONNECT_HINT) continue;
+            long delay = DRAIN_DELAY_MILLIS + ThreadLocalRandom.current().nextLong(DRAIN_SPREAD_MILLIS + 1);
+            try {
+                session.sendUnnumbered(new Message(MessageType.RECONNECT_HINT, String.valueOf(delay)));
+            } catch (IOException ignored) {
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_MILLIS);
+        while (System.nanoTime() - deadline < 0 && hasOutbound(connected)) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        for (Session session : connected) {
+            try {
+                session.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        try {
+            SessionSnapshot.save(new ArrayList<>(connectionMap.values()), rooms);
+            Log.writeMessage("Сервер остановлен, сессии сохранены");
+        } catch (IOException e) {
+            Log.writeMessage("Не удалось сохранить сессии, после перезапуска пользователи войдут заново");
+        }
+        // Записи журнала, поставленные до закрытия соединений
+        try {
+            journalExecutor.submit(() -> { }).get(DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException ignored) {
+        }
+        if (journal != null)
+            journal.flush();
+        Log.flush();
+    }
+
+    private static boolean hasOutbound(Collection<Session> sessions) {
+        for (Session session : sessions) {
+            if (session.getOutboundDepth() > 0) return true;
+        }
+        return false;
+    }
+
+
+    //выполняется в платформенном или виртуальном потоке, см. ConnectionThreads
+    private static class Handler implements Runnable {
         private Socket socket;
 
 
@@ -34,100 +255,719 @@ public class Server {
             this.socket = socket;
         }
 
-        //основной метод работы серверного Thread
+        //основной метод работы серверного потока
         @Override
         public void run() {
-            ConsoleHelper.writeMessage("Установлено новое соединение с удаленным адресом" + socket.getRemoteSocketAddress());
-            String userName = null;
+            Log.writeMessage("Установлено новое соединение с удаленным адресом{}", socket.getRemoteSocketAddress());
+            ServerMetrics.SHARED.connectionsOpened.increment();
+            long openedAt = System.nanoTime();
+            Session session = null;
+            Connection registered = null;
+            IdleMonitor.Watch watch = null;
 
             try (Connection connection = new Connection(socket)) {
-                userName = serverHandshake(connection);
-
-                // Сообщаем всем участникам, что присоединился новый участник
-                sendBroadcastMessage(new Message(MessageType.USER_ADDED, userName));
+                registered = connection;
+                // Отправка идет через очередь соединения, чтобы медленный клиент не задерживал рассылку
+                connection.enableOutboundQueue(OutboundQueue.fromConfig(), writers);
+                session = serverHandshake(connection);
+                watch = watchIdle(connection);
+                ServerMetrics.SHARED.handshake.record(System.nanoTime() - openedAt);
 
-                // Сообщаем о новом участнике всех существующих пользователей чата
-                notifyUsers(connection, userName);
+                // Сообщаем всем участникам о новом участнике, а ему - о существующих
+                userJoined(session);
 
                 // Обрабатываем сообщения пользователей
-                serverMainLoop(connection, userName);
+                serverMainLoop(connection, session, watch);
 
             } catch (IOException | ClassNotFoundException e) {
-                ConsoleHelper.writeMessage("Ошибка при обмене данными с " + socket.getRemoteSocketAddress());
+                // При плавной остановке соединения закрывает сам сервер
+                if (!draining)
+                    Log.writeMessage("Ошибка при обмене данными с {}", socket.getRemoteSocketAddress());
+            }
+
+            if (watch != null) {
+                watch.cancel();
             }
 
-            if (userName != null) {
-                connectionMap.remove(userName);
-                sendBroadcastMessage(new Message(MessageType.USER_REMOVED, userName));
+            if (session != null) {
+                userLeft(session, registered);
             }
+            ServerMetrics.SHARED.connectionsClosed.increment();
 
-            ConsoleHelper.writeMessage("Соединение с " + socket.getRemoteSocketAddress() + " закрыто.");
+            Log.writeMessage("Соединение с {} закрыто.", socket.getRemoteSocketAddress());
         }
 
         //запрос имени у нового пользователя
-        private String serverHandshake(Connection connection) throws IOException, ClassNotFoundException {
+        private Session serverHandshake(Connection connection) throws IOException, ClassNotFoundException {
             while (true) {
-                connection.send(new Message(MessageType.NAME_REQUEST));
+                connection.send(new Message(MessageType.NAME_REQUEST, Protocol.offer()));
                 Message response = connection.receive();
+                ServerMetrics.SHARED.messagesIn.increment();
+                Session session = registerUser(connection, response);
 
-                if (response.getType() != MessageType.USER_NAME) {
-                    ConsoleHelper.writeMessage("Получен ответ от хоста" + connection.getRemoteSocketAddress() + ", не соответсвующий типу команды USER_NAME");
-                    continue;
-                }
+                if (session != null)
+                    return session;
+            }
+        }
+
+        //обработка входящих сообщений сервером и рассылка сообщений
+        private void serverMainLoop(Connection connection, Session session, IdleMonitor.Watch watch) throws IOException, ClassNotFoundException {
+            while (true) {
+                Message message = connection.receive();
+                ServerMetrics.SHARED.messagesIn.increment();
+                watch.touch();
+                processMessage(session, message);
+            }
+        }
+    }
 
-                String userName = response.getData();
+    //Шаги протокола, общие для Handler и NioConnection
+
+    //проверка ответа на NAME_REQUEST; возвращает сессию принятого пользователя или null, если имя нужно запросить снова
+    static Session registerUser(Transport connection, Message response) throws IOException {
+        // Клиент выбрал версию протокола: дальнейший обмен, включая повторный NAME_REQUEST, идет в новом формате
+        if (response.getType() == MessageType.PROTOCOL) {
+            String[] fields = response.getFields(2);
+            connection.useProtocol(Protocol.negotiate(fields.length > 0 ? fields[0] : null));
+            // Клиент попросил сжимать кадры; принимать сжатые кадры сервер с Protocol.COMPRESSION умеет всегда
+            if (fields.length == 2 && Protocol.DEFLATE.equals(fields[1]) && Protocol.COMPRESS
+                    && connection.getProtocolVersion() >= Protocol.COMPRESSION)
+                connection.enableCompression();
+            return null;
+        }
+
+        // Клиент переподключился после обрыва: если продолжить сессию нельзя, он войдет заново через USER_NAME
+        if (response.getType() == MessageType.SESSION_RESUME && connection.getProtocolVersion() >= Protocol.SESSIONS) {
+            String[] fields = response.getFields(2);
+            Session session = null;
+            try {
+                if (fields.length == 2)
+                    session = sessions.resume(fields[0], Long.parseLong(fields[1]), connection);
+            } catch (NumberFormatException ignored) {
+            }
+            if (session == null)
+                Log.writeMessage("Не удалось возобновить сессию для хоста{}", connection.getRemoteSocketAddress());
+            else
+                Log.writeMessage("Пользователь {} переподключился с {}", session.getUserName(), connection.getRemoteSocketAddress());
+            return session;
+        }
+
+        if (response.getType() != MessageType.USER_NAME) {
+            Log.writeMessage("Получен ответ от хоста{}, не соответсвующий типу команды USER_NAME", connection.getRemoteSocketAddress());
+            return null;
+        }
+
+        String userName = response.getData();
+
+        if (userName == null || userName.isEmpty()) {
+            Log.writeMessage("Получен ответ с пустым полем 'Имя_пользователя' от хоста{}", connection.getRemoteSocketAddress());
+            return null;
+        }
+
+        // Имена передаются полями USER_LIST и USERS_CHANGED, поэтому разделитель полей в них недопустим
+        if (userName.indexOf(Message.FIELD_SEPARATOR) >= 0) {
+            Log.writeMessage("Получено недопустимое имя пользователя от хоста{}", connection.getRemoteSocketAddress());
+            return null;
+        }
+
+        // Имя должно быть свободно во всем кластере
+        if (connectionMap.containsKey(userName) || remoteNames.containsKey(userName)) {
+            Log.writeMessage("Данный пользователь уже существует");
+            return null;
+        }
+
+        // Токен сессии получают только клиенты, которые умеют ее возобновлять
+        Session session = sessions.open(userName, connection);
+        connection.send(new Message(MessageType.NAME_ACCEPTED, session.getToken()));
+        connectionMap.put(userName, session);
+
+        return session;
+    }
+
+    static void userJoined(Session session) throws IOException {
+        // После переподключения участники уже знают о пользователе
+        if (!session.markAnnounced())
+            return;
+
+        // Новый участник получает состав чата целиком, остальные узнают о нем следующей пачкой изменений
+        presenceLock.lock();
+        try {
+            if (session.getProtocolVersion() >= Protocol.PRESENCE_SYNC)
+                sendUserList(session);
+            else
+                notifyUsers(session, session.getUserName());
+            session.setPresenceFrom(presenceSequence);
+            queuePresence("+" + session.getUserName());
+            pendingRelay.add("+" + session.getUserName());
+        } finally {
+            presenceLock.unlock();
+        }
+
+        // Личные сообщения, пришедшие, пока пользователя не было в сети
+        deliverMailbox(session, session.getUserName());
+    }
 
-                if (userName.isEmpty()) {
-                    ConsoleHelper.writeMessage("Получен ответ с пустым полем 'Имя_пользователя' от хоста" + connection.getRemoteSocketAddress());
-                    continue;
+    //соединение сессии закрылось; имя освобождается сразу или после SessionRegistry.GRACE_MILLIS
+    static void userLeft(Session session, Transport transport) {
+        sessions.detach(session, transport);
+    }
+
+    //проверка простоя соединения, прошедшего рукопожатие
+    static IdleMonitor.Watch watchIdle(Transport transport) {
+        return idleMonitor.watch(transport);
+    }
+
+    private static void sessionEnded(Session session) {
+        rooms.leaveAll(session);
+        presenceLock.lock();
+        try {
+            if (!connectionMap.remove(session.getUserName(), session)) return;
+            pendingRelay.add("-" + session.getUserName());
+            // Имя, занятое и на другом узле, остается в списке участников
+            if (remoteNames.containsKey(session.getUserName()))
+                schedulePresence();
+            else
+                queuePresence("-" + session.getUserName());
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    //вызывается под presenceLock. Когда пользователи входят и выходят пачкой (например, при сбое сети),
+    //о них сообщается одним проходом по соединениям
+    private static void queuePresence(String change) {
+        pendingPresence.add(change);
+        presenceSequence++;
+        schedulePresence();
+    }
+
+    private static void schedulePresence() {
+        if (!presenceScheduled) {
+            presenceScheduled = true;
+            timers.schedule(Server::flushPresence, TimeUnit.MILLISECONDS.toNanos(PRESENCE_BATCH_MILLIS));
+        }
+    }
+
+    private static void flushPresence() {
+        presenceLock.lock();
+        try {
+            presenceScheduled = false;
+            sendPresence();
+            // Другие узлы получают изменения состава этого узла той же пачкой
+            if (!pendingRelay.isEmpty()) {
+                for (List<String> part : splitParts(pendingRelay)) {
+                    cluster.publish(relayFields("presence", part));
                 }
+                pendingRelay.clear();
+            }
+        } finally {
+            presenceLock.unlock();
+        }
+    }
 
-                if (connectionMap.containsKey(userName)) {
-                    ConsoleHelper.writeMessage("Данный пользователь уже существует");
-                    continue;
+    //вызывается под presenceLock. Клиенты с Protocol.PRESENCE_SYNC получают накопившиеся изменения в USERS_CHANGED,
+    //остальные - отдельными USER_ADDED/USER_REMOVED подряд, которые писатель соединения отправит одной записью.
+    //Изменения, сделанные до того, как пользователь получил список участников, ему не отправляются
+    private static void sendPresence() {
+        if (pendingPresence.isEmpty()) return;
+        long first = presenceSequence - pendingPresence.size();
+        Map<Integer, List<EncodedMessage>> changed = new HashMap<>();
+        Map<Integer, List<EncodedMessage>> legacy = new HashMap<>();
+
+        for (Session session : connectionMap.values()) {
+            long from = session.getPresenceFrom();
+            if (from >= presenceSequence) continue;
+            int skip = (int) Math.max(0, from - first);
+            List<String> changes = pendingPresence.subList(skip, pendingPresence.size());
+            List<EncodedMessage> frames = session.getProtocolVersion() >= Protocol.PRESENCE_SYNC
+                    ? changed.computeIfAbsent(skip, s -> usersChanged(changes))
+                    : legacy.computeIfAbsent(skip, s -> legacyChanges(changes));
+            try {
+                for (EncodedMessage frame : frames) {
+                    session.send(frame);
                 }
+            } catch (IOException e) {
+                Log.writeMessage("Не смогли отправить сообщение {}", session.getRemoteSocketAddress());
+            }
+        }
+        pendingPresence.clear();
+    }
+
+    private static List<EncodedMessage> usersChanged(List<String> changes) {
+        List<EncodedMessage> frames = new ArrayList<>();
+        for (List<String> part : splitParts(changes)) {
+            frames.add(new EncodedMessage(new Message(MessageType.USERS_CHANGED, part.toArray(new String[0]))));
+        }
+        return frames;
+    }
 
-                connection.send(new Message(MessageType.NAME_ACCEPTED));
-                connectionMap.put(userName, connection);
+    private static List<EncodedMessage> legacyChanges(List<String> changes) {
+        List<EncodedMessage> frames = new ArrayList<>(changes.size());
+        for (String change : changes) {
+            MessageType type = change.charAt(0) == '+' ? MessageType.USER_ADDED : MessageType.USER_REMOVED;
+            frames.add(new EncodedMessage(new Message(type, change.substring(1))));
+        }
+        return frames;
+    }
 
-                return userName;
+    //весь состав чата одним USER_LIST вместо USER_ADDED на каждого участника; вызывается под presenceLock
+    private static void sendUserList(FrameSink connection) throws IOException {
+        List<List<String>> parts = splitParts(new ArrayList<>(allUserNames()));
+        for (int i = 0; i < parts.size(); i++) {
+            List<String> fields = new ArrayList<>(parts.get(i).size() + 2);
+            fields.add(String.valueOf(i));
+            fields.add(String.valueOf(parts.size()));
+            fields.addAll(parts.get(i));
+            connection.send(new Message(MessageType.USER_LIST, fields.toArray(new String[0])));
+        }
+    }
+
+    private static List<List<String>> splitParts(List<String> names) {
+        List<List<String>> parts = new ArrayList<>();
+        List<String> part = new ArrayList<>();
+        int chars = 0;
+        for (String name : names) {
+            if (!part.isEmpty() && chars + name.length() > PRESENCE_PART_CHARS) {
+                parts.add(part);
+                part = new ArrayList<>();
+                chars = 0;
             }
+            part.add(name);
+            chars += name.length() + 1;
         }
+        parts.add(part);
+        return parts;
+    }
+
+    //состав чата для клиентов до Protocol.PRESENCE_SYNC: USER_ADDED о каждом участнике, кроме самого пользователя,
+    //о нем он узнает из очередной пачки изменений
+    private static void notifyUsers(FrameSink connection, String userName) throws IOException {
+        for (String user : allUserNames()) {
+            if (!user.equals(userName))
+                connection.send(new Message(MessageType.USER_ADDED, user));
+        }
+    }
+
+    //обработка сообщения от пользователя, прошедшего рукопожатие. Вызывается из потока соединения или цикла
+    //событий, поэтому здесь только разбор и постановка кадров в очереди; журнал - в journalExecutor
+    static void processMessage(Session session, Message message) {
+        if (!admitMessage(session, message)) return;
+        String userName = session.getUserName();
+        switch (message.getType()) {
+            case TEXT:
+                String textForSending = userName + ": " +message.getData();
+                Message text = new Message(MessageType.TEXT, textForSending);
+                journalExecutor.execute(() -> appendToJournal(text));
+                sendBroadcastMessage(text);
+                break;
+            case HISTORY_REQUEST:
+                journalExecutor.execute(() -> sendHistory(session, message));
+                break;
+            case SEARCH:
+                journalExecutor.execute(() -> sendSearchResults(session, message));
+                break;
+            case PRIVATE:
+                sendPrivateMessage(session, message);
+                break;
+            case SESSION_CLOSE:
+                session.markLeaving();
+                break;
+            case PONG:
+                // Отметку активности уже обновил получатель сообщения
+                break;
+            case ROOM_JOIN:
+            case ROOM_LEAVE:
+                if (!RoomRegistry.isValidName(message.getData())) {
+                    Log.writeMessage("Получено недопустимое имя комнаты от хоста{}", session.getRemoteSocketAddress());
+                } else if (message.getType() == MessageType.ROOM_JOIN) {
+                    rooms.join(session, message.getData());
+                } else {
+                    rooms.leave(session, message.getData());
+                }
+                break;
+            case ROOM_TEXT:
+                String[] fields = message.getFields(2);
+                if (fields.length == 2 && RoomRegistry.isValidName(fields[0]))
+                    rooms.post(session, userName, fields[0], fields[1]);
+                break;
+            default:
+                Log.writeMessage("При получении сообщения от хоста{} возникла ошибка. " +
+                        "Тип сообщения не соответсвует протоколу.", session.getRemoteSocketAddress());
+        }
+    }
 
-        //оповещение о новом пользователе всех участников чата
-        private void notifyUsers(Connection connection, String userName) throws IOException {
-            for (String user : connectionMap.keySet()) {
-                if (!connectionMap.containsKey(userName))
-                    connection.send(new Message(MessageType.USER_ADDED, user));
+
+
+    //ограничение частоты: сверх нормы сообщения отбрасываются до обработки и рассылки. Служебные PONG
+    //и SESSION_CLOSE не ограничиваются. О первом отброшенном сообщении серии клиент получает THROTTLED
+    //(клиенты до Protocol.THROTTLING - TEXT) со временем, через которое можно писать снова
+    private static boolean admitMessage(Session session, Message message) {
+        if (message.getType() == MessageType.PONG || message.getType() == MessageType.SESSION_CLOSE)
+            return true;
+        boolean wasThrottled = session.isThrottled();
+        long wait = session.acquireMessage();
+        if (wait == 0)
+            return true;
+
+        ServerMetrics.SHARED.messagesThrottled.increment();
+        if (!wasThrottled) {
+            Log.writeMessage("Пользователь {} превысил частоту сообщений, сообщения отбрасываются", session.getUserName());
+            long retryMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+            try {
+                if (session.getProtocolVersion() >= Protocol.THROTTLING)
+                    session.send(new Message(MessageType.THROTTLED, String.valueOf(retryMillis)));
+                else
+                    session.send(new Message(MessageType.TEXT, String.format(
+                            "Слишком много сообщений, часть отброшена. Повторите через %d мс.", retryMillis)));
+            } catch (IOException e) {
+                Log.writeMessage("Не смогли отправить сообщение {}", session.getRemoteSocketAddress());
             }
         }
+        return false;
+    }
 
-        //обработка входящих сообщений сервером и рассылка сообщений
-        private void serverMainLoop(Connection connection, String userName) throws IOException, ClassNotFoundException {
-            while (true) {
-                Message message = connection.receive();
+    //личное сообщение: получатель находится одним поиском в connectionMap, другие соединения не затрагиваются.
+    //Пользователю не в сети сообщение кладется в почтовый ящик и доставляется при его следующем входе
+    private static void sendPrivateMessage(Session sender, Message message) {
+        String[] fields = message.getFields(2);
+        if (fields.length != 2 || fields[0].isEmpty()) {
+            Log.writeMessage("Получено личное сообщение без получателя от хоста{}", sender.getRemoteSocketAddress());
+            return;
+        }
+        String recipientName = fields[0];
+        Message delivered = new Message(MessageType.PRIVATE, sender.getUserName(), fields[1]);
 
-                if (message.getType() == MessageType.TEXT) {
-                    String textForSending = userName + ": " +message.getData();
-                    sendBroadcastMessage(new Message(MessageType.TEXT, textForSending));
-                } else
-                    ConsoleHelper.writeMessage("При получении сообщения от хоста" +
-                            connection.getRemoteSocketAddress() + " возникла ошибка. " +
-                            "Тип сообщения не соответсвует протоколу. Тип команды не TEXT");
+        Session recipient = connectionMap.get(recipientName);
+        if (recipient != null) {
+            sendPrivate(recipient, delivered);
+            return;
+        }
+        journalExecutor.execute(() -> sendRemotePrivate(sender, recipientName, fields[1], delivered));
+    }
+
+    //получатель на другом узле кластера или не в сети; выполняется в journalExecutor
+    private static void sendRemotePrivate(Session sender, String recipientName, String text, Message delivered) {
+        // Получатель на другом узле кластера: сообщение уходит только этому узлу
+        String node = nodeOf(recipientName);
+        if (node != null && cluster.send(node, "private", recipientName, sender.getUserName(), text))
+            return;
+
+        boolean stored = mailboxes.store(recipientName, delivered);
+        try {
+            sender.send(new Message(MessageType.TEXT, stored
+                    ? String.format("Пользователь %s не в сети, сообщение будет доставлено при его входе.", recipientName)
+                    : String.format("Пользователь %s не в сети, и сообщение для него не сохранено: почтовый ящик полон.", recipientName)));
+        } catch (IOException e) {
+            Log.writeMessage("Не смогли отправить сообщение {}", sender.getRemoteSocketAddress());
+        }
+        // Получатель мог войти между поиском и сохранением: тогда его ящик уже разобран при входе
+        Session joined = connectionMap.get(recipientName);
+        if (stored && joined != null)
+            deliverMailbox(joined, recipientName);
+    }
+
+    private static void deliverMailbox(FrameSink recipient, String userName) {
+        for (Message message : mailboxes.take(userName)) {
+            sendPrivate(recipient, message);
+        }
+    }
+
+    //клиенты до Protocol.PRIVATE_MESSAGES не знают типа PRIVATE и получают его обычным текстом
+    private static void sendPrivate(FrameSink recipient, Message message) {
+        try {
+            if (recipient.getProtocolVersion() >= Protocol.PRIVATE_MESSAGES) {
+                recipient.send(message);
+            } else {
+                String[] fields = message.getFields(2);
+                recipient.send(new Message(MessageType.TEXT, String.format("(лично) %s: %s", fields[0], fields[1])));
+            }
+        } catch (IOException e) {
+            Log.writeMessage("Не смогли отправить сообщение {}", recipient.getRemoteSocketAddress());
+        }
+    }
+
+    //смещения попадают в индекс поиска в том же порядке, в каком их выдал журнал, поэтому запись и индексация
+    //идут под блокировкой журнала; слова выделяются до нее
+    private static void appendToJournal(Message message) {
+        if (journal == null) return;
+        Set<String> terms = SearchIndex.terms(message.getData());
+        try {
+            synchronized (journal) {
+                long offset = journal.append(message);
+                if (offset < 0) return;
+                search.add(offset, terms);
+                if (offset % SearchIndex.TRIM_INTERVAL == 0)
+                    search.trim(journal.oldestOffset());
             }
+        } catch (IOException e) {
+            Log.writeMessage("Не удалось записать сообщение в журнал");
         }
     }
 
+    //история общего чата: "last" и число сообщений либо "since" и смещение из прошлого HISTORY_END.
+    //Клиенту с двоичным протоколом уходят срезы журнала как есть, остальным - декодированные сообщения
+    private static void sendHistory(FrameSink connection, Message request) {
+        String[] fields = request.getFields(2);
+        long value;
+        try {
+            value = fields.length == 2 ? Long.parseLong(fields[1]) : -1;
+        } catch (NumberFormatException e) {
+            value = -1;
+        }
+        if (value < 0 || !("last".equals(fields[0]) || "since".equals(fields[0]))) {
+            Log.writeMessage("Получен неверный запрос истории от хоста{}", connection.getRemoteSocketAddress());
+            return;
+        }
+
+        try {
+            if (journal == null) {
+                connection.send(new Message(MessageType.HISTORY_END, "0"));
+                return;
+            }
+            MessageJournal.Range range = "last".equals(fields[0])
+                    ? journal.readLast((int) Math.min(value, MessageJournal.MAX_HISTORY))
+                    : journal.read(value, MessageJournal.MAX_HISTORY);
+            boolean binary = connection.getProtocolVersion() >= Protocol.BINARY;
+            for (ByteBuffer frame : range.frames) {
+                if (binary) {
+                    connection.sendFrame(frame);
+                } else {
+                    connection.send(MessageJournal.decode(frame));
+                }
+            }
+            connection.send(new Message(MessageType.HISTORY_END, String.valueOf(range.next())));
+        } catch (IOException e) {
+            Log.writeMessage("Не смогли отправить историю {}", connection.getRemoteSocketAddress());
+        }
+    }
 
+    //поиск по истории общего чата: самые новые сообщения журнала, в которых есть все слова запроса.
+    //Длинные тексты обрезаются, чтобы ответ из MAX_RESULTS сообщений уместился в один кадр
+    private static void sendSearchResults(FrameSink connection, Message request) {
+        String query = request.getData() == null ? "" : request.getData();
+        List<String> fields = new ArrayList<>();
+        fields.add(query);
+        if (journal != null) {
+            for (long offset : search.search(query, SearchIndex.MAX_RESULTS, journal.oldestOffset())) {
+                MessageJournal.Range range = journal.read(offset, 1);
+                long timestamp = journal.timestamp(offset);
+                if (range.from != offset || range.frames.isEmpty() || timestamp < 0) continue;
+                try {
+                    String text = MessageJournal.decode(range.frames.get(0)).getData();
+                    if (text.length() > SEARCH_RESULT_CHARS)
+                        text = text.substring(0, SEARCH_RESULT_CHARS) + "…";
+                    fields.add(String.valueOf(offset));
+                    fields.add(String.valueOf(timestamp));
+                    fields.add(text);
+                } catch (StreamCorruptedException e) {
+                    Log.writeMessage("Запись журнала {} не прочитана", offset);
+                }
+            }
+        }
+        try {
+            connection.send(new Message(MessageType.SEARCH, fields.toArray(new String[0])));
+        } catch (IOException e) {
+            Log.writeMessage("Не смогли отправить результаты поиска {}", connection.getRemoteSocketAddress());
+        }
+    }
 
-    //отправка сообщения всем пользователям
+    //отправка сообщения всем пользователям кластера: своим напрямую, другим узлам - по одному разу через связь кластера
     public static void sendBroadcastMessage(Message message) {
-        for (Connection connection : connectionMap.values()) {
+        deliverBroadcast(message);
+        if (cluster != ClusterRelay.NONE)
+            journalExecutor.execute(() -> cluster.publish("broadcast", message.getType().name(), message.getData()));
+    }
+
+    //отправка сообщения всем пользователям узла; сообщение кодируется один раз для каждого формата, а не для каждого соединения
+    private static void deliverBroadcast(Message message) {
+        long start = System.nanoTime();
+        EncodedMessage encoded = new EncodedMessage(message);
+        for (Session session : connectionMap.values()) {
             try {
-                connection.send(message);
+                session.send(encoded);
             } catch (IOException e) {
-                ConsoleHelper.writeMessage("Не смогли отправить сообщение " + connection.getRemoteSocketAddress());
+                Log.writeMessage("Не смогли отправить сообщение {}", session.getRemoteSocketAddress());
             }
         }
+        ServerMetrics.SHARED.broadcast.record(System.nanoTime() - start);
+    }
+
+    //Кластер
+
+    //все участники чата: пользователи этого узла и других узлов
+    private static Collection<String> allUserNames() {
+        if (remoteNames.isEmpty()) return connectionMap.keySet();
+        Set<String> names = new LinkedHashSet<>(connectionMap.keySet());
+        names.addAll(remoteNames.keySet());
+        return names;
+    }
+
+    private static String nodeOf(String userName) {
+        presenceLock.lock();
+        try {
+            for (Map.Entry<String, Set<String>> node : remoteUsers.entrySet()) {
+                if (node.getValue().contains(userName)) return node.getKey();
+            }
+            return null;
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    private static String[] relayFields(String kind, List<String> values) {
+        String[] fields = new String[values.size() + 1];
+        fields[0] = kind;
+        for (int i = 0; i < values.size(); i++) {
+            fields[i + 1] = values.get(i);
+        }
+        return fields;
+    }
+
+    //поля, начиная с from, одной строкой: текст сообщения мог содержать разделитель полей
+    private static String joinFields(String[] fields, int from) {
+        return String.join(String.valueOf(Message.FIELD_SEPARATOR), Arrays.asList(fields).subList(from, fields.length));
+    }
+
+    //Сообщения других узлов. Виды: "broadcast" - тип и данные сообщения для всех пользователей, "private" - получатель,
+    //отправитель и текст, "users" - номер части, число частей и имена пользователей узла (после установки связи),
+    //"presence" - изменения состава узла ("+имя"/"-имя")
+    private static final class ClusterPeers implements ClusterRelay.Listener {
+        @Override
+        public void peerUp(String nodeId) {
+            presenceLock.lock();
+            try {
+                List<List<String>> parts = splitParts(new ArrayList<>(connectionMap.keySet()));
+                for (int i = 0; i < parts.size(); i++) {
+                    List<String> fields = new ArrayList<>(parts.get(i).size() + 2);
+                    fields.add(String.valueOf(i));
+                    fields.add(String.valueOf(parts.size()));
+                    fields.addAll(parts.get(i));
+                    cluster.send(nodeId, relayFields("users", fields));
+                }
+            } finally {
+                presenceLock.unlock();
+            }
+        }
+
+        @Override
+        public void peerDown(String nodeId) {
+            presenceLock.lock();
+            try {
+                remoteSnapshots.remove(nodeId);
+                Set<String> names = remoteUsers.get(nodeId);
+                if (names == null) return;
+                for (String name : new ArrayList<>(names)) {
+                    remoteLeft(nodeId, name);
+                }
+                remoteUsers.remove(nodeId);
+            } finally {
+                presenceLock.unlock();
+            }
+        }
+
+        @Override
+        public void received(String nodeId, String[] fields) {
+            switch (fields[0]) {
+                case "broadcast":
+                    Message message = new Message(MessageType.valueOf(fields[1]), joinFields(fields, 2));
+                    if (message.getType() == MessageType.TEXT)
+                        appendToJournal(message);
+                    deliverBroadcast(message);
+                    break;
+                case "private":
+                    Message delivered = new Message(MessageType.PRIVATE, fields[2], joinFields(fields, 3));
+                    Session recipient = connectionMap.get(fields[1]);
+                    if (recipient != null)
+                        sendPrivate(recipient, delivered);
+                    else
+                        mailboxes.store(fields[1], delivered);
+                    break;
+                case "users":
+                    presenceLock.lock();
+                    try {
+                        receiveSnapshot(nodeId, Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                                Arrays.asList(fields).subList(3, fields.length));
+                    } finally {
+                        presenceLock.unlock();
+                    }
+                    break;
+                case "presence":
+                    presenceLock.lock();
+                    try {
+                        for (int i = 1; i < fields.length; i++) {
+                            String name = fields[i].substring(1);
+                            if (fields[i].charAt(0) == '+')
+                                remoteJoined(nodeId, name);
+                            else
+                                remoteLeft(nodeId, name);
+                        }
+                    } finally {
+                        presenceLock.unlock();
+                    }
+                    break;
+                default:
+                    Log.writeMessage("Получено сообщение неизвестного вида от узла кластера {}", nodeId);
+            }
+        }
+
+        //полный список пользователей узла заменяет известный о нем; вызывается под presenceLock
+        private void receiveSnapshot(String nodeId, int part, int parts, List<String> names) {
+            Set<String> snapshot = part == 0 ? new HashSet<>() : remoteSnapshots.get(nodeId);
+            if (snapshot == null) return;
+            snapshot.addAll(names);
+            if (part < parts - 1) {
+                remoteSnapshots.put(nodeId, snapshot);
+                return;
+            }
+            remoteSnapshots.remove(nodeId);
+            Set<String> known = remoteUsers.get(nodeId);
+            if (known != null) {
+                for (String name : new ArrayList<>(known)) {
+                    if (!snapshot.contains(name)) remoteLeft(nodeId, name);
+                }
+            }
+            for (String name : snapshot) {
+                remoteJoined(nodeId, name);
+            }
+        }
+
+        //вызывается под presenceLock
+        private void remoteJoined(String nodeId, String name) {
+            if (!remoteUsers.computeIfAbsent(nodeId, n -> new HashSet<>()).add(name)) return;
+            remoteNames.merge(name, 1, Integer::sum);
+            Session local = connectionMap.get(name);
+            if (local == null) {
+                queuePresence("+" + name);
+            } else if (nodeId.compareTo(cluster.nodeId()) < 0) {
+                // Имя заняли одновременно на двух узлах: остается пользователь узла с меньшим идентификатором
+                timers.schedule(() -> yieldName(local), 0);
+            }
+        }
+
+        //вызывается под presenceLock
+        private void remoteLeft(String nodeId, String name) {
+            Set<String> names = remoteUsers.get(nodeId);
+            if (names == null || !names.remove(name)) return;
+            remoteNames.computeIfPresent(name, (n, count) -> count > 1 ? count - 1 : null);
+            if (!remoteNames.containsKey(name) && !connectionMap.containsKey(name))
+                queuePresence("-" + name);
+        }
+
+        private void yieldName(Session session) {
+            Log.writeMessage("Имя {} занято на другом узле кластера, сессия завершается", session.getUserName());
+            try {
+                session.send(new Message(MessageType.TEXT, "Имя уже занято на другом узле чата, войдите под другим именем."));
+            } catch (IOException e) {
+                Log.writeMessage("Не смогли отправить сообщение {}", session.getRemoteSocketAddress());
+            }
+            session.markLeaving();
+            // Соединение закрывается чуть позже, чтобы писатель успел отправить уведомление
+            timers.schedule(() -> {
+                try {
+                    session.close();
+                } catch (IOException ignored) {
+                }
+            }, TimeUnit.MILLISECONDS.toNanos(200));
+        }
     }
 }
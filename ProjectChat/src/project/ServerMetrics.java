@@ -0,0 +1,219 @@
+package project;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+//Счетчики сервера. Запись - LongAdder без блокировок, поэтому счетчики можно трогать на каждом сообщении
+//из любого потока. Значения отдаются по HTTP в текстовом формате Prometheus (GET /metrics),
+//если задан -Dchat.metrics.port; адрес - -Dchat.metrics.host (по умолчанию только локальный).
+final class ServerMetrics {
+    static final int PORT = Integer.getInteger("chat.metrics.port", -1);
+    static final String HOST = System.getProperty("chat.metrics.host", "127.0.0.1");
+    //-Dchat.metrics.top: сколько пользователей с самыми длинными исходящими очередями и с наибольшим числом
+    //отброшенных кадров публиковать поименно
+    static final int TOP_USERS = Integer.getInteger("chat.metrics.top", 10);
+
+    static final ServerMetrics SHARED = new ServerMetrics();
+
+    final LongAdder connectionsOpened = new LongAdder();
+    final LongAdder connectionsClosed = new LongAdder();
+    final LongAdder messagesIn = new LongAdder();
+    final LongAdder messagesOut = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder framesDropped = new LongAdder();
+    final LongAdder messagesThrottled = new LongAdder();
+    final LongAdder framesCompressed = new LongAdder();
+    final LongAdder compressionSaved = new LongAdder();
+    final Histogram handshake = new Histogram(0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5);
+    final Histogram broadcast = new Histogram(0.00001, 0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1);
+
+    //сообщений в секунду за последнюю секунду, пересчитываются таймером
+    private volatile double messagesInRate;
+    private volatile double messagesOutRate;
+    private long lastMessagesIn;
+    private long lastMessagesOut;
+    private volatile Supplier<Collection<Session>> sessions;
+
+    private ServerMetrics() {
+    }
+
+    //источник сессий для глубины очередей и пересчет скоростей раз в секунду
+    void start(TimingWheel timers, Supplier<Collection<Session>> sessions) throws IOException {
+        this.sessions = sessions;
+        timers.schedule(() -> sampleRates(timers), TimeUnit.SECONDS.toNanos(1));
+        if (PORT < 0) return;
+
+        HttpServer http = HttpServer.create(new InetSocketAddress(HOST, PORT), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+        Log.writeMessage("Метрики доступны по адресу http://{}:{}/metrics", HOST, PORT);
+    }
+
+    //вызывается только потоком колеса таймеров
+    private void sampleRates(TimingWheel timers) {
+        long in = messagesIn.sum();
+        long out = messagesOut.sum();
+        messagesInRate = in - lastMessagesIn;
+        messagesOutRate = out - lastMessagesOut;
+        lastMessagesIn = in;
+        lastMessagesOut = out;
+        timers.schedule(() -> sampleRates(timers), TimeUnit.SECONDS.toNanos(1));
+    }
+
+    String render() {
+        StringBuilder out = new StringBuilder(2048);
+        long opened = connectionsOpened.sum();
+        gauge(out, "chat_connections_active", "Открытые сетевые соединения", opened - connectionsClosed.sum());
+        counter(out, "chat_connections_opened_total", "Принятые соединения", opened);
+        counter(out, "chat_messages_in_total", "Сообщения от клиентов", messagesIn.sum());
+        counter(out, "chat_messages_out_total", "Кадры, записанные клиентам", messagesOut.sum());
+        gauge(out, "chat_messages_in_per_second", "Сообщения от клиентов за последнюю секунду", messagesInRate);
+        gauge(out, "chat_messages_out_per_second", "Кадры клиентам за последнюю секунду", messagesOutRate);
+        counter(out, "chat_bytes_in_total", "Байты от клиентов", bytesIn.sum());
+        counter(out, "chat_bytes_out_total", "Байты клиентам", bytesOut.sum());
+        counter(out, "chat_outbound_dropped_total", "Кадры, отброшенные при переполнении исходящих очередей", framesDropped.sum());
+        counter(out, "chat_messages_throttled_total", "Сообщения, отброшенные ограничением частоты", messagesThrottled.sum());
+        counter(out, "chat_frames_compressed_total", "Кадры, отправленные сжатыми", framesCompressed.sum());
+        counter(out, "chat_compression_saved_bytes_total", "Байты, сэкономленные сжатием кадров", compressionSaved.sum());
+        handshake.render(out, "chat_handshake_seconds", "Время от подключения до принятия имени");
+        broadcast.render(out, "chat_broadcast_seconds", "Время рассылки сообщения всем соединениям");
+
+        Supplier<Collection<Session>> source = sessions;
+        if (source != null) {
+            Collection<Session> all = source.get();
+            long total = 0;
+            long max = 0;
+            //только пользователи с непустой очередью или с отброшенными кадрами: обычно их немного,
+            //и сортируются только они
+            List<UserSample> queued = new ArrayList<>();
+            List<UserSample> dropping = new ArrayList<>();
+            for (Session session : all) {
+                int depth = session.getOutboundDepth();
+                total += depth;
+                max = Math.max(max, depth);
+                if (depth > 0) queued.add(new UserSample(session.getUserName(), depth));
+                long dropped = session.getDroppedCount();
+                if (dropped > 0) dropping.add(new UserSample(session.getUserName(), dropped));
+            }
+            gauge(out, "chat_users", "Пользователи в чате, включая ожидающих переподключения", all.size());
+            gauge(out, "chat_outbound_queue_depth_total", "Кадры во всех исходящих очередях", total);
+            gauge(out, "chat_outbound_queue_depth_max", "Самая длинная исходящая очередь", max);
+            Comparator<UserSample> largestFirst = Comparator.comparingLong((UserSample sample) -> sample.value).reversed();
+            queued.sort(largestFirst);
+            dropping.sort(largestFirst);
+            userGauge(out, "chat_user_outbound_queue_depth",
+                    "Исходящие очереди пользователей, самые длинные (-Dchat.metrics.top)", queued);
+            userGauge(out, "chat_user_outbound_dropped",
+                    "Кадры, отброшенные из-за переполнения очереди пользователя за его сессию, больше всего (-Dchat.metrics.top)", dropping);
+        }
+        return out.toString();
+    }
+
+    //значение пользователя для метрики с меткой user
+    private static final class UserSample {
+        final String user;
+        final long value;
+
+        UserSample(String user, long value) {
+            this.user = user;
+            this.value = value;
+        }
+    }
+
+    //первые TOP_USERS значений из samples, по одной строке с меткой user на пользователя
+    private static void userGauge(StringBuilder out, String name, String help, List<UserSample> samples) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        for (UserSample sample : samples.subList(0, Math.min(TOP_USERS, samples.size()))) {
+            out.append(name).append("{user=\"").append(escapeLabel(sample.user)).append("\"} ")
+                    .append(sample.value).append('\n');
+        }
+    }
+
+    //значение метки в формате Prometheus: обратная косая черта, кавычка и перевод строки экранируются
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static void counter(StringBuilder out, String name, String help, double value) {
+        metric(out, name, help, "counter", value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        metric(out, name, help, "gauge", value);
+    }
+
+    private static void metric(StringBuilder out, String name, String help, String type, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    //гистограмма с фиксированными границами в секундах, как histogram в Prometheus
+    static final class Histogram {
+        private final double[] bounds;
+        private final long[] boundsNanos;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram(double... boundsSeconds) {
+            this.bounds = boundsSeconds;
+            this.boundsNanos = new long[boundsSeconds.length];
+            this.buckets = new LongAdder[boundsSeconds.length];
+            for (int i = 0; i < boundsSeconds.length; i++) {
+                boundsNanos[i] = (long) (boundsSeconds[i] * 1e9);
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            for (int i = 0; i < boundsNanos.length; i++) {
+                if (nanos <= boundsNanos[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        private void render(StringBuilder out, String name, String help) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(" histogram\n");
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                out.append(name).append("_bucket{le=\"").append(format(bounds[i])).append("\"} ").append(cumulative).append('\n');
+            }
+            long total = count.sum();
+            out.append(name).append("_bucket{le=\"+Inf\"} ").append(total).append('\n');
+            out.append(name).append("_sum ").append(format(sumNanos.sum() / 1e9)).append('\n');
+            out.append(name).append("_count ").append(total).append('\n');
+        }
+    }
+}
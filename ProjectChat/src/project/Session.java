@@ -0,0 +1,319 @@
+package project;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+//Сессия пользователя на сервере. Именно она хранится в connectionMap и в комнатах, а сетевое соединение
+//(transport) под ней может смениться: после обрыва клиент с Protocol.SESSIONS переподключается и
+//продолжает ту же сессию. Все, что сервер отправляет пользователю, проходит через сессию и остается
+//в кольцевом буфере последних кадров, откуда досылается пропущенное.
+//Номера сообщений по сети не передаются: обе стороны считают кадры, отправленные после NAME_ACCEPTED.
+//Поэтому соединение сессии не отбрасывает кадры при переполнении, а закрывается (Transport.disconnectOnOverflow):
+//выпавший кадр сдвинул бы счет клиента, и досылка после переподключения началась бы не с того номера.
+final class Session implements FrameSink {
+    private final String userName;
+    private final String token;
+    private final int protocolVersion;
+    //кадры с номерами sent - recent.length .. sent - 1; пустой массив - сессию нельзя возобновить
+    private final ByteBuffer[] recent;
+    //порядок записи в буфер и в соединение должен совпадать, поэтому отправка идет под блокировкой
+    private final Lock lock = new ReentrantLock();
+    private Transport transport;
+    private SocketAddress lastAddress;
+    private long sent;
+    //кадры, отброшенные прежними соединениями сессии: счетчик не обнуляется при переподключении
+    private long droppedEarlier;
+    //номер первого кадра, который есть в буфере; у сессии, восстановленной после перезапуска, более ранних нет
+    private long firstBuffered;
+    private boolean announced;
+    //номер первого изменения состава чата, которое пользователь не видел в своем списке участников;
+    //до получения списка изменения ему не отправляются. Защищен Server.presenceLock
+    private long presenceFrom = Long.MAX_VALUE;
+    //ограничение частоты сообщений живет в сессии, чтобы переподключение его не сбрасывало; null - без ограничения
+    private final RateLimiter rateLimiter = RateLimiter.fromConfig();
+    //последнее сообщение было отброшено; THROTTLED отправляется один раз на серию отброшенных
+    private volatile boolean throttled;
+    private boolean leaving;
+    private boolean ended;
+
+    Session(String userName, String token, Transport transport, int bufferSize) {
+        this.userName = userName;
+        this.token = token;
+        this.protocolVersion = transport.getProtocolVersion();
+        this.recent = new ByteBuffer[bufferSize];
+        this.transport = transport;
+        this.lastAddress = transport.getRemoteSocketAddress();
+    }
+
+    //сессия, сохраненная прежним процессом сервера при плавной остановке (см. SessionSnapshot). Соединения
+    //у нее еще нет, о пользователе участники уже знают. frames - последние кадры прежнего процесса
+    //с номерами sent - frames.size() .. sent - 1: продолжить сессию можно с любого из них
+    Session(String userName, String token, int protocolVersion, long sent, List<ByteBuffer> frames, int bufferSize) {
+        this.userName = userName;
+        this.token = token;
+        this.protocolVersion = protocolVersion;
+        this.recent = new ByteBuffer[bufferSize];
+        this.sent = sent;
+        int kept = (int) Math.min(Math.min(frames.size(), bufferSize), sent);
+        List<ByteBuffer> tail = frames.subList(frames.size() - kept, frames.size());
+        for (int i = 0; i < kept; i++) {
+            recent[(int) ((sent - kept + i) % bufferSize)] = tail.get(i);
+        }
+        this.firstBuffered = sent - kept;
+        this.announced = true;
+    }
+
+    String getUserName() {
+        return userName;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    //0, если сообщение можно обработать, иначе через сколько наносекунд освободится место;
+    //вызывается только потоком, читающим соединение сессии
+    long acquireMessage() {
+        long wait = rateLimiter == null ? 0 : rateLimiter.tryAcquire();
+        throttled = wait > 0;
+        return wait;
+    }
+
+    boolean isThrottled() {
+        return throttled;
+    }
+
+    boolean isResumable() {
+        return recent.length > 0;
+    }
+
+    @Override
+    public void send(Message message) throws IOException {
+        send(new EncodedMessage(message));
+    }
+
+    @Override
+    public void send(EncodedMessage message) throws IOException {
+        sendFrame(ByteBuffer.wrap(message.frame(protocolVersion)));
+    }
+
+    //пока соединения нет, кадры только накапливаются в буфере
+    @Override
+    public void sendFrame(ByteBuffer frame) throws IOException {
+        lock.lock();
+        try {
+            if (ended) return;
+            if (recent.length > 0)
+                recent[(int) (sent % recent.length)] = frame.duplicate();
+            sent++;
+            if (transport != null)
+                transport.sendFrame(frame);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //служебный кадр вне нумерации сессии (как PING): не попадает в буфер и не досылается после переподключения
+    void sendUnnumbered(Message message) throws IOException {
+        Transport current = current();
+        if (current != null) current.send(message);
+    }
+
+    //число кадров, отправленных пользователю за сессию
+    long getSentCount() {
+        lock.lock();
+        try {
+            return sent;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //добавляет в frames последние (не больше limit) кадры из буфера по порядку и возвращает число
+    //отправленных кадров - номер, следующий за последним из них
+    long copyRecent(List<ByteBuffer> frames, int limit) {
+        lock.lock();
+        try {
+            long from = Math.max(Math.max(firstBuffered, sent - recent.length), Math.max(sent - limit, 0));
+            for (long number = from; number < sent; number++) {
+                frames.add(recent[(int) (number % recent.length)].duplicate());
+            }
+            return sent;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEnded() {
+        lock.lock();
+        try {
+            return ended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //продолжение сессии в новом соединении: NAME_ACCEPTED и кадры начиная с номера received.
+    //false, если сессия завершена или часть пропущенного уже вытеснена из буфера
+    boolean resume(Transport newTransport, long received) throws IOException {
+        Transport previous;
+        lock.lock();
+        try {
+            if (ended || received > sent || received < Math.max(firstBuffered, sent - Math.min(sent, recent.length)))
+                return false;
+            newTransport.send(new Message(MessageType.NAME_ACCEPTED, token));
+            for (long number = received; number < sent; number++) {
+                newTransport.sendFrame(recent[(int) (number % recent.length)].duplicate());
+            }
+            previous = transport;
+            if (previous != null) droppedEarlier += previous.getDroppedCount();
+            transport = newTransport;
+            lastAddress = newTransport.getRemoteSocketAddress();
+            leaving = false;
+        } finally {
+            lock.unlock();
+        }
+        //прежнее соединение могло еще не заметить обрыв
+        if (previous != null) closeQuietly(previous);
+        return true;
+    }
+
+    //отсоединение transport; true, если он был текущим соединением сессии
+    boolean detach(Transport oldTransport) {
+        lock.lock();
+        try {
+            if (transport != oldTransport) return false;
+            droppedEarlier += oldTransport.getDroppedCount();
+            transport = null;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //завершение сессии, если к ней так и не переподключились; true, если сессия завершена этим вызовом
+    boolean endIfDetached() {
+        lock.lock();
+        try {
+            if (ended || transport != null) return false;
+            ended = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //безусловное завершение, например когда возобновить сессию уже нельзя
+    boolean end() {
+        Transport current;
+        lock.lock();
+        try {
+            if (ended) return false;
+            ended = true;
+            current = transport;
+            transport = null;
+        } finally {
+            lock.unlock();
+        }
+        if (current != null) closeQuietly(current);
+        return true;
+    }
+
+    //клиент прислал SESSION_CLOSE: после закрытия соединения ждать его не нужно
+    void markLeaving() {
+        lock.lock();
+        try {
+            leaving = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isLeaving() {
+        lock.lock();
+        try {
+            return leaving;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //о входе пользователя сообщается один раз за сессию, а не при каждом переподключении
+    boolean markAnnounced() {
+        lock.lock();
+        try {
+            if (announced) return false;
+            announced = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getPresenceFrom() {
+        return presenceFrom;
+    }
+
+    void setPresenceFrom(long presenceFrom) {
+        this.presenceFrom = presenceFrom;
+    }
+
+    @Override
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        lock.lock();
+        try {
+            return lastAddress;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getOutboundDepth() {
+        Transport current = current();
+        return current == null ? 0 : current.getOutboundDepth();
+    }
+
+    //отброшенные кадры за всю сессию, во всех ее соединениях
+    @Override
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedEarlier + (transport == null ? 0 : transport.getDroppedCount());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //закрывает текущее соединение; сама сессия завершается через SessionRegistry
+    @Override
+    public void close() throws IOException {
+        Transport current = current();
+        if (current != null) current.close();
+    }
+
+    private Transport current() {
+        lock.lock();
+        try {
+            return transport;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void closeQuietly(Transport connection) {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
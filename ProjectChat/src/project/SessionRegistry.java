@@ -0,0 +1,90 @@
+package project;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+//Сессии по токенам. После обрыва соединения сессия с Protocol.SESSIONS ждет переподключения
+//GRACE_MILLIS, имя все это время остается занятым; затем сессия завершается и вызывается onEnded.
+final class SessionRegistry {
+    //-Dchat.session.grace.ms и -Dchat.session.buffer (число последних кадров для досылки)
+    static final long GRACE_MILLIS = Long.getLong("chat.session.grace.ms", 30_000);
+    static final int BUFFER_SIZE = Integer.getInteger("chat.session.buffer", 1024);
+
+    private final Map<String, Session> byToken = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final TimingWheel timers;
+    private final Consumer<Session> onEnded;
+
+    SessionRegistry(TimingWheel timers, Consumer<Session> onEnded) {
+        this.timers = timers;
+        this.onEnded = onEnded;
+    }
+
+    //новая сессия поверх соединения, прошедшего рукопожатие
+    Session open(String userName, Transport transport) {
+        if (transport.getProtocolVersion() < Protocol.SESSIONS)
+            return new Session(userName, null, transport, 0);
+
+        transport.disconnectOnOverflow(0);
+        Session session = new Session(userName, newToken(), transport, BUFFER_SIZE);
+        byToken.put(session.getToken(), session);
+        return session;
+    }
+
+    //возобновленная сессия или null; сессия, пропущенное которой уже не дослать, завершается сразу
+    Session resume(String token, long received, Transport transport) throws IOException {
+        Session session = token == null ? null : byToken.get(token);
+        if (session == null) return null;
+        //пропущенное (до BUFFER_SIZE кадров) ставится в очередь нового соединения разом
+        transport.disconnectOnOverflow(BUFFER_SIZE);
+        if (session.resume(transport, received)) return session;
+
+        end(session);
+        return null;
+    }
+
+    //соединение сессии закрылось
+    void detach(Session session, Transport transport) {
+        if (!session.detach(transport)) return;
+        if (!session.isResumable() || session.isLeaving()) {
+            end(session);
+            return;
+        }
+        awaitResume(session);
+    }
+
+    //сессия прежнего процесса сервера ждет переподключения так же, как после обрыва
+    void restore(Session session) {
+        byToken.put(session.getToken(), session);
+        awaitResume(session);
+    }
+
+    private void awaitResume(Session session) {
+        timers.schedule(() -> {
+            if (session.endIfDetached()) ended(session);
+        }, TimeUnit.MILLISECONDS.toNanos(GRACE_MILLIS));
+    }
+
+    private void end(Session session) {
+        if (session.end()) ended(session);
+    }
+
+    private void ended(Session session) {
+        if (session.getToken() != null) byToken.remove(session.getToken());
+        onEnded.accept(session);
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return token.toString();
+    }
+}
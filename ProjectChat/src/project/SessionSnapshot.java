@@ -0,0 +1,134 @@
+package project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+//Сессии, которые процесс сервера при плавной остановке передает следующему (см. Server.drain): пользователи
+//продолжают их после перезапуска, а имена до тех пор остаются занятыми. Вместе с сессией сохраняются последние
+//кадры ее буфера: клиент, не успевший получить их до закрытия соединения, получит их после переподключения.
+//Файл двоичный: MAGIC, затем записи сессий - токен, версия протокола, число отправленных кадров, имя, комнаты
+//и кадры (длина и байты). В файле токены сессий, поэтому он доступен только владельцу; при запуске он читается
+//один раз и удаляется, чтобы те же сессии не восстановились еще раз после сбоя.
+final class SessionSnapshot {
+    //-Dchat.sessions.file (пустое значение отключает сохранение)
+    static final String FILE = System.getProperty("chat.sessions.file", "chat-sessions");
+    //-Dchat.sessions.frames: сколько последних кадров каждой сессии сохранять (не больше буфера сессии)
+    static final int FRAMES = Math.min(Integer.getInteger("chat.sessions.frames", 64), SessionRegistry.BUFFER_SIZE);
+    //"CHS" и номер формата
+    private static final int MAGIC = 0x43485301;
+
+    final Session session;
+    final List<String> rooms;
+
+    private SessionSnapshot(Session session, List<String> rooms) {
+        this.session = session;
+        this.rooms = rooms;
+    }
+
+    static void save(Collection<Session> sessions, RoomRegistry rooms) throws IOException {
+        if (FILE.isBlank()) return;
+        save(sessions, rooms, Paths.get(FILE));
+    }
+
+    static void save(Collection<Session> sessions, RoomRegistry rooms, Path file) throws IOException {
+        file = file.toAbsolutePath();
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+            Files.createFile(temporary, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            for (Session session : sessions) {
+                if (session.getToken() == null || session.isEnded()) continue;
+                List<ByteBuffer> frames = new ArrayList<>();
+                long sent = session.copyRecent(frames, FRAMES);
+                out.writeUTF(session.getToken());
+                out.writeInt(session.getProtocolVersion());
+                out.writeLong(sent);
+                out.writeUTF(session.getUserName());
+                Collection<String> joined = rooms.roomsOf(session);
+                out.writeInt(joined.size());
+                for (String room : joined) {
+                    out.writeUTF(room);
+                }
+                out.writeInt(frames.size());
+                for (ByteBuffer frame : frames) {
+                    byte[] bytes = new byte[frame.remaining()];
+                    frame.get(bytes);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static List<SessionSnapshot> load() throws IOException {
+        if (FILE.isBlank()) return new ArrayList<>();
+        return load(Paths.get(FILE));
+    }
+
+    //сессии прежнего процесса; файл другого формата пропускается, из оборванного или поврежденного
+    //восстанавливаются записи до места повреждения
+    static List<SessionSnapshot> load(Path file) throws IOException {
+        List<SessionSnapshot> result = new ArrayList<>();
+        if (!Files.exists(file)) return result;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                Log.writeMessage("Файл сессий {} другого формата, сессии не восстановлены", file);
+                return result;
+            }
+            while (true) {
+                String token;
+                try {
+                    token = in.readUTF();
+                } catch (EOFException end) {
+                    break;
+                }
+                int version = in.readInt();
+                long sent = in.readLong();
+                String name = in.readUTF();
+                int roomCount = in.readInt();
+                List<String> rooms = new ArrayList<>();
+                for (int i = 0; i < roomCount; i++) {
+                    rooms.add(in.readUTF());
+                }
+                int frameCount = in.readInt();
+                if (sent < 0 || frameCount < 0 || frameCount > sent)
+                    throw new StreamCorruptedException("Поврежденная запись сессии " + name);
+                List<ByteBuffer> frames = new ArrayList<>();
+                for (int i = 0; i < frameCount; i++) {
+                    int length = in.readInt();
+                    if (length < 0 || length > BinaryCodec.LENGTH_FIELD + BinaryCodec.MAX_FRAME_LENGTH)
+                        throw new StreamCorruptedException("Поврежденный кадр сессии " + name);
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    frames.add(ByteBuffer.wrap(bytes));
+                }
+                if (token.isEmpty() || name.isEmpty()) continue;
+                Session session = new Session(name, token, version, sent, frames, SessionRegistry.BUFFER_SIZE);
+                result.add(new SessionSnapshot(session, rooms));
+            }
+        } catch (EOFException | StreamCorruptedException e) {
+            Log.writeMessage("Файл сессий {} оборван или поврежден, восстановлено сессий: {}", file, result.size());
+        } finally {
+            Files.delete(file);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,253 @@
+package project;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+//Полносвязная сеть узлов кластера поверх TCP. Узел слушает -Dchat.cluster.port и сам подключается к узлам
+//из -Dchat.cluster.peers (host:port через запятую), переподключаясь раз в секунду. Связь - обычный Connection
+//в двоичном формате: сначала обе стороны отправляют NODE_HELLO с идентификатором узла (-Dchat.cluster.node),
+//временем запуска и просьбой сжимать кадры (Protocol.DEFLATE, если сжатие не отключено), затем идут RELAY
+//с номером и полями сообщения.
+//Узел отправляет каждое сообщение каждому соседу один раз и сам его не пересылает дальше. Номера сообщений
+//растут в пределах запуска узла, и получатель отбрасывает уже виденные по паре (узел, номер): так повторов нет,
+//даже если два узла подключились друг к другу одновременно. Из двух связей между парой узлов остается та,
+//которую открыл узел с меньшим идентификатором. Связь не защищена, ее порт должен быть доступен только узлам.
+final class TcpMeshRelay implements ClusterRelay {
+    static final int PORT = Integer.getInteger("chat.cluster.port", -1);
+    static final String PEERS = System.getProperty("chat.cluster.peers", "");
+    //очередь исходящих кадров связи; при переполнении связь рвется и после переподключения состояние
+    //передается заново, а не теряется молча
+    static final int OUTBOUND_CAPACITY = Integer.getInteger("chat.cluster.outbound.capacity", 65_536);
+    private static final long RETRY_MILLIS = 1_000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+
+    private final String nodeId;
+    private final long startedAt = System.currentTimeMillis();
+    private final Executor writers;
+    //действующая связь с каждым узлом
+    private final Map<String, Link> links = new ConcurrentHashMap<>();
+    //последнее принятое сообщение каждого узла
+    private final Map<String, Received> received = new ConcurrentHashMap<>();
+    //номер и постановка в очереди связей выполняются вместе, чтобы номера уходили по возрастанию
+    private final Object sendLock = new Object();
+    private long sequence;
+    private volatile Listener listener;
+
+    TcpMeshRelay(String nodeId, Executor writers) {
+        this.nodeId = nodeId;
+        this.writers = writers;
+    }
+
+    //NONE, если кластер не настроен; идентификатор узла по умолчанию - по клиентскому порту
+    static ClusterRelay fromConfig(int clientPort, Executor writers) {
+        if (PORT < 0) return ClusterRelay.NONE;
+        return new TcpMeshRelay(System.getProperty("chat.cluster.node", "node-" + clientPort), writers);
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void start(Listener listener) throws IOException {
+        this.listener = listener;
+        ServerSocket serverSocket = new ServerSocket(PORT);
+        daemon("chat-cluster-accept", () -> {
+            while (true) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    daemon("chat-cluster-link", () -> serve(socket, false));
+                } catch (IOException e) {
+                    Log.writeMessage("Ошибка приема связи кластера: {}", e);
+                }
+            }
+        });
+        for (String peer : PEERS.split(",")) {
+            if (peer.isBlank()) continue;
+            int colon = peer.lastIndexOf(':');
+            InetSocketAddress address = new InetSocketAddress(peer.substring(0, colon).trim(),
+                    Integer.parseInt(peer.substring(colon + 1).trim()));
+            daemon("chat-cluster-dial-" + peer.trim(), () -> dial(address));
+        }
+        Log.writeMessage("Узел кластера {} слушает порт {}", nodeId, PORT);
+    }
+
+    @Override
+    public void publish(String... fields) {
+        synchronized (sendLock) {
+            EncodedMessage message = relayMessage(fields);
+            for (Link link : links.values()) {
+                link.send(message);
+            }
+        }
+    }
+
+    @Override
+    public boolean send(String nodeId, String... fields) {
+        synchronized (sendLock) {
+            Link link = links.get(nodeId);
+            if (link == null) return false;
+            link.send(relayMessage(fields));
+            return true;
+        }
+    }
+
+    //вызывается под sendLock
+    private EncodedMessage relayMessage(String[] fields) {
+        String[] relay = new String[fields.length + 1];
+        relay[0] = String.valueOf(++sequence);
+        System.arraycopy(fields, 0, relay, 1, fields.length);
+        return new EncodedMessage(new Message(MessageType.RELAY, relay));
+    }
+
+    //подключение к соседу; пока с его узлом есть связь, открытая им самим, повторно не подключаемся
+    private void dial(InetSocketAddress address) {
+        String peerId = null;
+        while (true) {
+            if (peerId == null || !links.containsKey(peerId)) {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                    String served = serve(socket, true);
+                    if (served != null) peerId = served;
+                } catch (IOException e) {
+                    closeQuietly(socket);
+                }
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    //обмен приветствиями и чтение сообщений до закрытия связи; возвращает идентификатор узла на другой стороне
+    private String serve(Socket socket, boolean dialed) {
+        Link link = null;
+        try (Connection connection = new Connection(socket)) {
+            connection.useProtocol(Protocol.CURRENT);
+            connection.send(Protocol.COMPRESS
+                    ? new Message(MessageType.NODE_HELLO, nodeId, String.valueOf(startedAt), Protocol.DEFLATE)
+                    : new Message(MessageType.NODE_HELLO, nodeId, String.valueOf(startedAt)));
+            Message hello = connection.receive();
+            String[] fields = hello.getFields(3);
+            if (hello.getType() != MessageType.NODE_HELLO || fields.length < 2 || fields[0].equals(nodeId))
+                return null;
+            if (fields.length == 3 && Protocol.DEFLATE.equals(fields[2]) && Protocol.COMPRESS)
+                connection.enableCompression();
+            connection.enableOutboundQueue(new OutboundQueue(OUTBOUND_CAPACITY, OutboundQueue.OverflowPolicy.DISCONNECT), writers);
+            link = new Link(fields[0], connection, dialed ? nodeId : fields[0]);
+            restarted(link.nodeId, Long.parseLong(fields[1]));
+            if (!register(link))
+                return link.nodeId;
+
+            while (true) {
+                Message message = connection.receive();
+                if (message.getType() != MessageType.RELAY) continue;
+                String[] relay = message.getFields();
+                if (relay.length < 2 || !accept(link.nodeId, Long.parseLong(relay[0]))) continue;
+                listener.received(link.nodeId, Arrays.copyOfRange(relay, 1, relay.length));
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            if (link != null) unregister(link);
+            return link == null ? null : link.nodeId;
+        }
+    }
+
+    //из двух связей с одним узлом остается открытая узлом с меньшим идентификатором - обе стороны выбирают одну и ту же
+    private boolean register(Link link) {
+        Link replaced;
+        synchronized (links) {
+            Link existing = links.get(link.nodeId);
+            if (existing != null && existing.dialer.compareTo(link.dialer) <= 0)
+                return false;
+            replaced = links.put(link.nodeId, link);
+        }
+        if (replaced != null) replaced.close();
+        Log.writeMessage("Установлена связь с узлом кластера {} ({})", link.nodeId, link.connection.getRemoteSocketAddress());
+        listener.peerUp(link.nodeId);
+        return true;
+    }
+
+    private void unregister(Link link) {
+        link.close();
+        if (!links.remove(link.nodeId, link)) return;
+        Log.writeMessage("Потеряна связь с узлом кластера {}", link.nodeId);
+        listener.peerDown(link.nodeId);
+    }
+
+    //узел перезапустился: его номера сообщений начались заново
+    private void restarted(String peerId, long peerStartedAt) {
+        received.compute(peerId, (id, state) ->
+                state == null || state.startedAt != peerStartedAt ? new Received(peerStartedAt) : state);
+    }
+
+    private boolean accept(String peerId, long number) {
+        Received state = received.get(peerId);
+        synchronized (state) {
+            if (number <= state.last) return false;
+            state.last = number;
+            return true;
+        }
+    }
+
+    private static void daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static final class Received {
+        final long startedAt;
+        long last;
+
+        Received(long startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
+
+    private final class Link {
+        final String nodeId;
+        final Connection connection;
+        //узел, открывший связь
+        final String dialer;
+
+        Link(String nodeId, Connection connection, String dialer) {
+            this.nodeId = nodeId;
+            this.connection = connection;
+            this.dialer = dialer;
+        }
+
+        void send(EncodedMessage message) {
+            try {
+                connection.send(message);
+            } catch (IOException e) {
+                Log.writeMessage("Не смогли отправить сообщение узлу кластера {}", nodeId);
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
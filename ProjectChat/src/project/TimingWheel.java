@@ -0,0 +1,106 @@
+package project;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+//Хешированное колесо таймеров: время разбито на тики, таймер попадает в ячейку по номеру тика своего срока
+//и хранит число оставшихся оборотов колеса. Постановка и отмена - O(1), за тик обходится одна ячейка,
+//поэтому таймер на каждое соединение не превращается в отдельную задачу планировщика.
+//Точность - один тик; задачи выполняются в потоке колеса и не должны блокироваться.
+final class TimingWheel {
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    //новые таймеры из любых потоков; в ячейки их переносит только поток колеса
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    //номер текущего тика, доступен только потоку колеса
+    private long tick;
+
+    TimingWheel(String name, long tickMillis, int size) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.buckets = new Timeout[Integer.highestOneBit(Math.max(2, size - 1)) << 1];
+        this.mask = buckets.length - 1;
+        Thread worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    Timeout schedule(Runnable task, long delayNanos) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startNanos + Math.max(0, delayNanos));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (true) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, wait);
+            }
+            transferPending();
+            expire((int) (tick & mask));
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) continue;
+            long calculated = timeout.deadline / tickNanos;
+            timeout.rounds = (calculated - tick) / buckets.length;
+            int index = (int) (Math.max(calculated, tick) & mask);
+            timeout.next = buckets[index];
+            buckets[index] = timeout;
+        }
+    }
+
+    //ячейка хранится односвязным списком; отмененные таймеры удаляются при обходе
+    private void expire(int index) {
+        Timeout previous = null;
+        Timeout timeout = buckets[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.cancelled || timeout.rounds <= 0) {
+                if (previous == null) buckets[index] = next;
+                else previous.next = next;
+                timeout.next = null;
+                if (!timeout.cancelled) run(timeout.task);
+            } else {
+                timeout.rounds--;
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            Log.writeMessage("Ошибка при выполнении таймера: {}", e);
+        }
+    }
+
+    static final class Timeout {
+        private final Runnable task;
+        //срок в наносекундах от запуска колеса
+        private final long deadline;
+        private volatile boolean cancelled;
+        private long rounds;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
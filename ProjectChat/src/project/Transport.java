@@ -0,0 +1,53 @@
+package project;
+
+import java.nio.ByteBuffer;
+
+//Сетевое соединение: общая часть блокирующего Connection и неблокирующего NioTransport - версия протокола
+//и сжатие кадров. Читают они по-разному (Connection.receive в своем потоке, NioTransport - в цикле событий),
+//поэтому чтения здесь нет
+abstract class Transport implements FrameSink {
+    private volatile int protocolVersion = Protocol.SERIALIZATION;
+    //сжатие кадров с Protocol.COMPRESSION; null - сжатые кадры не принимаются и не отправляются
+    private volatile FrameCompression compression;
+
+    //переход на согласованную версию протокола; действует на все последующие отправки и чтения
+    public void useProtocol(int version) {
+        this.protocolVersion = version;
+        if (version >= Protocol.COMPRESSION && compression == null)
+            compression = new FrameCompression();
+    }
+
+    //исходящие кадры от FrameCompression.THRESHOLD байт данных сжимаются; вызывается после useProtocol,
+    //когда другая сторона попросила сжатие (Protocol.DEFLATE)
+    public void enableCompression() {
+        compression.enableDeflate();
+    }
+
+    //исходящие кадры больше не отбрасываются: при переполнении очереди соединение закрывается (см. Session).
+    //burst - запас сверх обычной емкости на кадры, которые ставятся в очередь разом (досылка пропущенного).
+    //Соединения без очереди пишут в сокет сами и ничего не отбрасывают
+    void disconnectOnOverflow(int burst) {
+    }
+
+    @Override
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    //сжатие кадров соединения или null, если версия протокола его не поддерживает
+    FrameCompression getCompression() {
+        return compression;
+    }
+
+    //кадр в том виде, в каком он уходит в сокет; сжатие выполняется в порядке записи (см. FrameCompression)
+    ByteBuffer deflate(ByteBuffer frame) {
+        FrameCompression current = compression;
+        return current == null ? frame : current.deflate(frame);
+    }
+
+    //освобождение памяти сжатия при закрытии соединения
+    void endCompression() {
+        FrameCompression current = compression;
+        if (current != null) current.end();
+    }
+}
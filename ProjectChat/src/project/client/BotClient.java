@@ -1,13 +1,22 @@
 package project.client;
 
 import project.ConsoleHelper;
+import project.Message;
+import project.MessageType;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
 
 public class BotClient extends Client{
+    //команды разделяются всеми ботами JVM, см. BotCommands
+    private final BotCommands commands;
+
+    public BotClient() {
+        this(BotCommands.shared());
+    }
+
+    public BotClient(BotCommands commands) {
+        this.commands = commands;
+    }
 
     @Override
     protected SocketThread getSocketThread() {
@@ -20,6 +29,12 @@ public class BotClient extends Client{
         return name;
     }
 
+    //старые сообщения бот принял бы за новые команды
+    @Override
+    protected int getHistorySize() {
+        return 0;
+    }
+
     @Override
     protected boolean shouldSendTextFromConsole() {
         return false;
@@ -34,58 +49,37 @@ public class BotClient extends Client{
         @Override
         protected void clientMainLoop() throws IOException, ClassNotFoundException {
             BotClient.this.sendTextMessage("Привет чатику. Я бот. " +
-                    "Понимаю команды: дата, день, месяц, год, время, час, минуты, секунды.");
+                    "Понимаю команды: " + String.join(", ", commands.names()) + ".");
             super.clientMainLoop();
         }
 
+        //команды из общего чата: ответ тоже в общий чат
         @Override
         protected void processIncomingMessage(String message) {
             // Выводим текст сообщения в консоль
             ConsoleHelper.writeMessage(message);
-            //разделяем сообщение по разделителю ":"
-            // имя пользователя - 1 элемент массива strings (strings[0])
-            // команда вывода даты - 2 элемент массива strings (strings[1])
-            String[] strings = message.split(":");
-            if (strings.length != 2) return;
-            String command = strings[1].trim();
-            String userName = strings[0].trim();
-            //проверяем текст сообщения
-            String format = null;
+            String reply = commands.dispatch(message);
+            if (reply != null)
+                BotClient.this.sendMessage(new Message(MessageType.TEXT, reply));
+        }
 
-            switch (command) {
-                case "дата":
-                    format = "d.MM.YYYY";
-                    break;
-                case "день":
-                    format = "d";
-                    break;
-                case "месяц":
-                    format = "MMMM";
-                    break;
-                case "год":
-                    format = "YYYY";
-                    break;
-                case "время":
-                    format = "H:mm:ss";
-                    break;
-                case "час":
-                    format = "H";
-                    break;
-                case "минуты":
-                    format = "m";
-                    break;
-                case "секунды":
-                    format = "s";
-                    break;
-            }
-            if (format != null) {
-                SimpleDateFormat formatter = new SimpleDateFormat(format);
-                Date date = Calendar.getInstance().getTime();
-                String dateForSending = formatter.format(date);
-                BotClient.this.sendTextMessage(String.format("Информация для %s: %s",userName,dateForSending));
-            }
+        //команды из комнаты: ответ в ту же комнату
+        @Override
+        protected void processRoomMessage(String room, String line) {
+            ConsoleHelper.writeMessage(String.format("[%s] %s", room, line));
+            String reply = commands.dispatch(line);
+            if (reply != null)
+                BotClient.this.sendMessage(new Message(MessageType.ROOM_TEXT, room, reply));
         }
 
+        //команды из личных сообщений: ответ лично отправителю
+        @Override
+        protected void processPrivateMessage(String sender, String text) {
+            ConsoleHelper.writeMessage(String.format("(лично) %s: %s", sender, text));
+            String reply = commands.dispatch(sender, text);
+            if (reply != null)
+                BotClient.this.sendMessage(new Message(MessageType.PRIVATE, sender, reply));
+        }
     }
 
 }
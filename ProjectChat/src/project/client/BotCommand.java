@@ -0,0 +1,9 @@
+package project.client;
+
+//Команда бота. Вызывается потоками ботов одновременно, поэтому реализация не должна хранить изменяемое состояние
+//без синхронизации
+@FunctionalInterface
+public interface BotCommand {
+    //ответ на команду или null, если отвечать не нужно; arguments - текст после имени команды (может быть пустым)
+    String execute(String sender, String arguments);
+}
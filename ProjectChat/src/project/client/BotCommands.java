@@ -0,0 +1,186 @@
+package project.client;
+
+import project.ConsoleHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+//Движок команд ботов: префиксное дерево имен команд. Собирается один раз из обработчиков (BotHandler)
+//и дальше только читается, поэтому один экземпляр разделяют все боты JVM, из любых потоков.
+//Команда - начало текста сообщения, за которым идет пробел или конец строки; имя может состоять
+//из нескольких слов, регистр не важен, совпадает самое длинное имя. Первое слово можно сократить
+//до MIN_ABBREVIATION символов, если с него начинается только одна команда.
+//Строка "имя: текст" разбирается по индексам, без split и промежуточных строк: пока команда не найдена,
+//память не выделяется, и сообщения, не адресованные ботам, почти ничего не стоят.
+public final class BotCommands {
+    //-Dchat.bot.handlers - классы BotHandler через запятую
+    static final String HANDLERS = System.getProperty("chat.bot.handlers", DateTimeHandler.class.getName());
+    private static final int MIN_ABBREVIATION = 3;
+
+    private final Node root;
+    private final List<String> names;
+
+    private BotCommands(Node root, List<String> names) {
+        this.root = root;
+        this.names = Collections.unmodifiableList(names);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    //общий движок из обработчиков -Dchat.bot.handlers; создается при первом обращении
+    public static BotCommands shared() {
+        return Shared.INSTANCE;
+    }
+
+    //имена команд в порядке регистрации
+    public List<String> names() {
+        return names;
+    }
+
+    //ответ на строку общего чата "имя: текст" или null, если в ней нет команды
+    public String dispatch(String line) {
+        int colon = line.indexOf(": ");
+        if (colon <= 0) return null;
+        return dispatch(line, 0, colon, line, colon + 2);
+    }
+
+    //ответ на личное сообщение отправителя или null, если в нем нет команды
+    public String dispatch(String sender, String text) {
+        return dispatch(sender, 0, sender.length(), text, 0);
+    }
+
+    private String dispatch(String senderSource, int senderStart, int senderEnd, String text, int textStart) {
+        int start = skipSpaces(text, textStart);
+        int length = text.length();
+        BotCommand found = null;
+        int foundEnd = -1;
+        BotCommand abbreviation = null;
+        boolean firstWord = true;
+        Node node = root;
+        for (int i = start; i < length; ) {
+            node = node.child(Character.toLowerCase(text.charAt(i++)));
+            if (node == null) break;
+            if (i < length && !Character.isWhitespace(text.charAt(i))) continue;
+            if (node.command != null) {
+                found = node.command;
+                foundEnd = i;
+            } else if (firstWord && i - start >= MIN_ABBREVIATION && node.only != null) {
+                abbreviation = node.only;
+                foundEnd = i;
+            }
+            firstWord = false;
+        }
+        BotCommand command = found != null ? found : abbreviation;
+        if (command == null) return null;
+
+        // Строки выделяются только для найденной команды
+        while (senderStart < senderEnd && Character.isWhitespace(senderSource.charAt(senderStart))) senderStart++;
+        while (senderEnd > senderStart && Character.isWhitespace(senderSource.charAt(senderEnd - 1))) senderEnd--;
+        String sender = senderSource.substring(senderStart, senderEnd);
+        String arguments = text.substring(skipSpaces(text, foundEnd)).trim();
+        return command.execute(sender, arguments);
+    }
+
+    private static int skipSpaces(String text, int from) {
+        while (from < text.length() && Character.isWhitespace(text.charAt(from))) from++;
+        return from;
+    }
+
+    private static BotCommands fromConfig() {
+        Builder builder = builder();
+        for (String className : HANDLERS.split(",")) {
+            if (className.isBlank()) continue;
+            try {
+                builder.handler((BotHandler) Class.forName(className.trim()).getDeclaredConstructor().newInstance());
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                ConsoleHelper.writeMessage("Не удалось подключить обработчик команд " + className.trim());
+            }
+        }
+        return builder.build();
+    }
+
+    private static final class Shared {
+        static final BotCommands INSTANCE = fromConfig();
+    }
+
+    public static final class Builder {
+        private final Node root = new Node();
+        private final List<String> names = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder command(String name, BotCommand command) {
+            Node node = root;
+            String key = name.trim();
+            for (int i = 0; i < key.length(); i++) {
+                node = node.childOrAdd(Character.toLowerCase(key.charAt(i)));
+            }
+            if (key.isEmpty() || node.command != null)
+                throw new IllegalArgumentException("Недопустимое или повторное имя команды: " + name);
+            node.command = command;
+            names.add(key);
+            return this;
+        }
+
+        public Builder handler(BotHandler handler) {
+            handler.register(this);
+            return this;
+        }
+
+        public BotCommands build() {
+            root.countCommands();
+            return new BotCommands(root, new ArrayList<>(names));
+        }
+    }
+
+    //узел дерева: дети упорядочены по символу и ищутся двоичным поиском без упаковки char в Character
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        //команда, имя которой заканчивается в этом узле
+        private BotCommand command;
+        //единственная команда в поддереве или null, если их несколько - для сокращений
+        private BotCommand only;
+
+        Node child(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node childOrAdd(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            if (index >= 0) return children[index];
+            index = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            newKeys[index] = key;
+            Node child = new Node();
+            newChildren[index] = child;
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+
+        //число команд в поддереве; заодно заполняет only
+        int countCommands() {
+            int count = command != null ? 1 : 0;
+            BotCommand single = command;
+            for (Node child : children) {
+                int below = child.countCommands();
+                if (below > 0) single = child.only;
+                count += below;
+            }
+            only = count == 1 ? single : null;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package project.client;
+
+//Набор команд бота, подключаемый к BotCommands. Классы обработчиков перечисляются в -Dchat.bot.handlers
+//и создаются конструктором без параметров
+public interface BotHandler {
+    void register(BotCommands.Builder commands);
+}
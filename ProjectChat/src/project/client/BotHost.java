@@ -0,0 +1,269 @@
+package project.client;
+
+import project.ConsoleHelper;
+import project.Message;
+import project.MessageType;
+import project.NioClientConnection;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+//Хост ботов: N ботов в одном процессе. Бот - легкий объект с неблокирующим соединением (NioClientConnection),
+//а не BotClient с двумя потоками и графом Client: соединения всех ботов обслуживают -Dchat.bots.loops потоков
+//цикла, а подключения, переподключения и периодический вывод - один поток планировщика. Команды - общий
+//BotCommands.shared(), ответы те же, что у BotClient. Команды выполняются в потоке цикла, поэтому
+//обработчики не должны блокироваться.
+//Запуск: java -Dchat.bots.count=50 project.client.BotHost <порт>; в консоли "stats" - счетчики ботов, "exit" - выход.
+public class BotHost {
+    private static final String HOST = System.getProperty("chat.bots.host", "localhost");
+    private static final int COUNT = Integer.getInteger("chat.bots.count", 10);
+    private static final String PREFIX = System.getProperty("chat.bots.prefix", "bot_");
+    private static final int LOOPS = Math.max(1, Integer.getInteger("chat.bots.loops", 1));
+    //периодический вывод: раз в столько секунд каждый бот выполняет команду и пишет ответ в общий чат (0 - выключен)
+    private static final long EVERY_SECONDS = Long.getLong("chat.bots.every", 0);
+    private static final String EVERY_COMMAND = System.getProperty("chat.bots.every.command", "время");
+    //печать счетчиков раз в столько секунд (0 - только по команде stats)
+    private static final long REPORT_SECONDS = Long.getLong("chat.bots.report", 0);
+    //приветствие при входе; по умолчанию выключено, чтобы N ботов не засыпали чат одинаковыми строками
+    private static final boolean GREET = Boolean.getBoolean("chat.bots.greet");
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final long RECONNECT_MIN_MILLIS = 500;
+    private static final long RECONNECT_MAX_MILLIS = 30_000;
+    private static final int MAX_NAME_ATTEMPTS = 10;
+
+    private final InetSocketAddress address;
+    private final BotCommands commands;
+    private final NioClientConnection.Loop[] loops = new NioClientConnection.Loop[LOOPS];
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "chat-bots-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Bot> bots = new ArrayList<>(COUNT);
+    private volatile boolean stopping;
+
+    public BotHost(InetSocketAddress address, BotCommands commands) {
+        this.address = address;
+        this.commands = commands;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : ConsoleHelper.readInt();
+        BotHost host = new BotHost(new InetSocketAddress(HOST, port), BotCommands.shared());
+        host.start();
+        while (true) {
+            String command = ConsoleHelper.readString().trim();
+            if (command.equals("exit")) break;
+            if (command.equals("stats")) host.printStats();
+        }
+        host.stop();
+    }
+
+    public void start() throws IOException {
+        for (int i = 0; i < LOOPS; i++) {
+            loops[i] = new NioClientConnection.Loop("chat-bots-loop-" + i);
+        }
+        for (int i = 0; i < COUNT; i++) {
+            bots.add(new Bot(PREFIX + i, loops[i % LOOPS]));
+        }
+        ConsoleHelper.writeMessage(String.format("Запускаем %d ботов (%s:%d), потоков цикла: %d...",
+                COUNT, address.getHostString(), address.getPort(), LOOPS));
+        for (Bot bot : bots) {
+            scheduler.execute(bot::connect);
+        }
+
+        if (EVERY_SECONDS > 0) {
+            // Боты пишут со сдвигом, чтобы не отправлять все сообщения в одно мгновение
+            long periodMillis = TimeUnit.SECONDS.toMillis(EVERY_SECONDS);
+            for (Bot bot : bots) {
+                long offset = periodMillis * bot.index / COUNT;
+                scheduler.scheduleAtFixedRate(bot::periodic, periodMillis + offset, periodMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (REPORT_SECONDS > 0)
+            scheduler.scheduleAtFixedRate(this::printStats, REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void stop() throws InterruptedException {
+        stopping = true;
+        scheduler.shutdownNow();
+        for (Bot bot : bots) {
+            NioClientConnection connection = bot.connection;
+            if (connection != null) connection.close();
+        }
+        for (NioClientConnection.Loop loop : loops) {
+            if (loop != null) loop.shutdown();
+        }
+    }
+
+    public void printStats() {
+        StringBuilder out = new StringBuilder();
+        int online = 0;
+        long received = 0;
+        long replies = 0;
+        for (Bot bot : bots) {
+            NioClientConnection connection = bot.connection;
+            boolean accepted = connection != null && connection.isAccepted();
+            if (accepted) online++;
+            received += bot.received;
+            replies += bot.replies;
+            out.append(String.format(Locale.ROOT, "%s: %s, получено %d, команд %d, ответов %d, по расписанию %d, переподключений %d, " +
+                            "среднее время команды %.1f мкс%n",
+                    bot.name, accepted ? "в сети" : "не в сети", bot.received, bot.executed, bot.replies,
+                    bot.periodicReplies, bot.reconnects, bot.executed == 0 ? 0.0 : bot.commandNanos / 1000.0 / bot.executed));
+        }
+        out.append(String.format("Ботов в сети: %d из %d, получено сообщений: %d, ответов: %d", online, bots.size(), received, replies));
+        ConsoleHelper.writeMessage(out.toString());
+    }
+
+    //Один бот. Счетчики пишет только поток его цикла (periodic - только поток планировщика), поэтому они
+    //volatile без атомарных операций; читаются при печати статистики
+    private final class Bot implements NioClientConnection.Listener {
+        private final int index;
+        private final String baseName;
+        private final NioClientConnection.Loop loop;
+        private volatile String name;
+        private volatile NioClientConnection connection;
+        //неудачные подключения подряд, для задержки перед следующим
+        private volatile int failures;
+        private int nameAttempts;
+        //сессия закрытого соединения - ее бот продолжит после переподключения - и задержка из RECONNECT_HINT
+        private volatile String sessionToken;
+        private volatile long sessionReceived;
+        private volatile long hintMillis;
+
+        private volatile long received;
+        private volatile long executed;
+        private volatile long replies;
+        private volatile long reconnects;
+        private volatile long commandNanos;
+        private volatile long periodicReplies;
+
+        Bot(String name, NioClientConnection.Loop loop) {
+            this.index = bots.size();
+            this.baseName = name;
+            this.name = name;
+            this.loop = loop;
+        }
+
+        //выполняется в потоке планировщика: подключение блокирует его не дольше CONNECT_TIMEOUT_MILLIS
+        void connect() {
+            if (stopping) return;
+            nameAttempts = 0;
+            try {
+                connection = NioClientConnection.connect(address, CONNECT_TIMEOUT_MILLIS, name, sessionToken,
+                        sessionReceived, loop, this);
+            } catch (IOException e) {
+                reconnectLater();
+            }
+        }
+
+        //повторные попытки с экспоненциальной задержкой и случайным разбросом, чтобы после перезапуска
+        //сервера боты не подключались все одновременно; задержку из RECONNECT_HINT разбросал сам сервер
+        private void reconnectLater() {
+            if (stopping) return;
+            long delay = hintMillis;
+            hintMillis = 0;
+            if (delay == 0) {
+                int attempt = Math.min(failures++, 10);
+                delay = Math.min(RECONNECT_MAX_MILLIS, RECONNECT_MIN_MILLIS << attempt);
+                delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+            }
+            try {
+                scheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException ignored) {
+                //планировщик уже остановлен
+            }
+        }
+
+        void periodic() {
+            NioClientConnection current = connection;
+            if (current == null || !current.isAccepted()) return;
+            String reply = commands.dispatch(name, EVERY_COMMAND);
+            if (reply == null) return;
+            send(current, new Message(MessageType.TEXT, reply));
+            periodicReplies++;
+        }
+
+        @Override
+        public void onAccepted(NioClientConnection connection, String userName) {
+            name = userName;
+            failures = 0;
+            if (GREET && !connection.isResumed())
+                send(connection, new Message(MessageType.TEXT, "Привет чатику. Я бот. " +
+                        "Понимаю команды: " + String.join(", ", commands.names()) + "."));
+        }
+
+        @Override
+        public String onNameRejected(NioClientConnection connection, String userName) {
+            if (++nameAttempts > MAX_NAME_ATTEMPTS) {
+                ConsoleHelper.writeMessage("Сервер не принял имя бота " + baseName + ", бот остановлен");
+                return null;
+            }
+            return baseName + "_" + nameAttempts;
+        }
+
+        @Override
+        public void onMessage(NioClientConnection connection, Message message) {
+            if (message.getType() == MessageType.RECONNECT_HINT) {
+                try {
+                    hintMillis = Math.max(0, Long.parseLong(message.getData()));
+                } catch (NumberFormatException ignored) {
+                }
+                return;
+            }
+            received++;
+            String reply;
+            MessageType replyType;
+            String[] fields = null;
+            long start = System.nanoTime();
+            if (message.getType() == MessageType.TEXT) {
+                // команды из общего чата: ответ тоже в общий чат
+                reply = commands.dispatch(message.getData());
+                replyType = MessageType.TEXT;
+            } else if (message.getType() == MessageType.ROOM_TEXT && (fields = message.getFields(2)).length == 2) {
+                // команды из комнаты ("комната", "имя: текст"): ответ в ту же комнату
+                reply = commands.dispatch(fields[1]);
+                replyType = MessageType.ROOM_TEXT;
+            } else if (message.getType() == MessageType.PRIVATE && (fields = message.getFields(2)).length == 2) {
+                // команды из личных сообщений: ответ лично отправителю
+                reply = commands.dispatch(fields[0], fields[1]);
+                replyType = MessageType.PRIVATE;
+            } else {
+                return;
+            }
+            if (reply == null) return;
+            executed++;
+            commandNanos += System.nanoTime() - start;
+            send(connection, replyType == MessageType.TEXT
+                    ? new Message(MessageType.TEXT, reply)
+                    : new Message(replyType, fields[0], reply));
+            replies++;
+        }
+
+        @Override
+        public void onClosed(NioClientConnection connection) {
+            if (this.connection == connection) this.connection = null;
+            sessionToken = connection.getSessionToken();
+            sessionReceived = connection.getReceived();
+            if (stopping || nameAttempts > MAX_NAME_ATTEMPTS) return;
+            reconnects++;
+            reconnectLater();
+        }
+
+        private void send(NioClientConnection connection, Message message) {
+            try {
+                connection.send(message);
+            } catch (IOException e) {
+                //соединение закрыто, бот переподключится в onClosed
+            }
+        }
+    }
+}
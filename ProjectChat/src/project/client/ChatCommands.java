@@ -0,0 +1,47 @@
+package project.client;
+
+import project.Message;
+import project.MessageType;
+
+//Разбор команд, которые пользователь вводит вместо обычного текста:
+//  /join комната       - войти в комнату
+//  /leave комната      - выйти из комнаты
+//  /room комната текст - написать в комнату
+//  /msg имя текст      - личное сообщение (пользователю не в сети оно придет при входе)
+//  /history N          - последние N сообщений общего чата
+//  /history since X    - сообщения начиная со смещения X
+//  /search запрос      - поиск по истории общего чата: все слова обязательны, "слово*" - по началу слова,
+//                        "@имя" - сообщения автора
+//Все остальное отправляется как обычное сообщение TEXT.
+class ChatCommands {
+    private ChatCommands() {
+    }
+
+    static Message toMessage(String text) {
+        if (text.startsWith("/join "))
+            return new Message(MessageType.ROOM_JOIN, text.substring("/join ".length()).trim());
+        if (text.startsWith("/leave "))
+            return new Message(MessageType.ROOM_LEAVE, text.substring("/leave ".length()).trim());
+        if (text.startsWith("/room ")) {
+            String rest = text.substring("/room ".length()).trim();
+            int space = rest.indexOf(' ');
+            if (space > 0)
+                return new Message(MessageType.ROOM_TEXT, rest.substring(0, space), rest.substring(space + 1));
+        }
+        if (text.startsWith("/msg ")) {
+            String rest = text.substring("/msg ".length()).trim();
+            int space = rest.indexOf(' ');
+            if (space > 0)
+                return new Message(MessageType.PRIVATE, rest.substring(0, space), rest.substring(space + 1));
+        }
+        if (text.startsWith("/history ")) {
+            String rest = text.substring("/history ".length()).trim();
+            if (rest.startsWith("since "))
+                return new Message(MessageType.HISTORY_REQUEST, "since", rest.substring("since ".length()).trim());
+            return new Message(MessageType.HISTORY_REQUEST, "last", rest);
+        }
+        if (text.startsWith("/search "))
+            return new Message(MessageType.SEARCH, text.substring("/search ".length()).trim());
+        return new Message(MessageType.TEXT, text);
+    }
+}
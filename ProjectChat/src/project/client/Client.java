@@ -2,16 +2,45 @@ package project.client;
 
 
 import project.Connection;
+import project.ConnectionThreads;
 import project.ConsoleHelper;
 import project.Message;
 import project.MessageType;
+import project.Protocol;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 public class Client {
-    protected Connection connection;
+    //сколько последних сообщений общего чата запросить после подключения, -Dchat.history
+    private static final int HISTORY_SIZE = Integer.getInteger("chat.history", 20);
+    //время найденных поиском сообщений
+    private static final DateTimeFormatter SEARCH_TIME = DateTimeFormatter.ofPattern("dd.MM HH:mm").withZone(ZoneId.systemDefault());
+    //переподключение после обрыва: задержка растет от начальной до максимальной, попытки прекращаются
+    //через -Dchat.reconnect.timeout.ms (по умолчанию совпадает со временем, которое сервер держит сессию)
+    private static final long RECONNECT_INITIAL_DELAY_MILLIS = 250;
+    private static final long RECONNECT_MAX_DELAY_MILLIS = 5_000;
+    private static final long RECONNECT_TIMEOUT_MILLIS = Long.getLong("chat.reconnect.timeout.ms", 30_000);
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    //сервер с Protocol.HEARTBEAT шлет PING молчащим клиентам, поэтому тишина дольше этого срока - признак обрыва
+    private static final int READ_TIMEOUT_MILLIS = Integer.getInteger("chat.idle.timeout.ms", 45_000);
+
+    protected volatile Connection connection;
     private volatile boolean clientConnected;
+    private volatile boolean reconnecting;
+    private volatile boolean closing;
 
     protected String getServerAddress() {
         ConsoleHelper.writeMessage("Введите адрес сервера:");
@@ -28,12 +57,41 @@ public class Client {
         return ConsoleHelper.readString();
     }
 
+    //0 - не запрашивать историю
+    protected int getHistorySize() {
+        return HISTORY_SIZE;
+    }
+
     public class SocketThread extends Thread {
+        private String serverAddress;
+        private int serverPort;
+        private String userName;
+        //токен сессии из NAME_ACCEPTED (null - сервер не поддерживает возобновление)
+        //и число сообщений, полученных после NAME_ACCEPTED
+        private String sessionToken;
+        private long received;
+        //задержка переподключения из RECONNECT_HINT (0 - сервер ее не присылал)
+        private long reconnectHintMillis;
+        private boolean resumed;
+        private boolean connectedOnce;
+        //участники, перечисленные в уже полученных частях USER_LIST
+        private int listedUsers;
+
         protected void processIncomingMessage(String message) throws IOException {
             // Выводим текст сообщения в консоль
             ConsoleHelper.writeMessage(message);
         }
 
+        //личное сообщение; по умолчанию выводится как обычное с пометкой
+        protected void processPrivateMessage(String sender, String text) throws IOException {
+            processIncomingMessage(String.format("(лично) %s: %s", sender, text));
+        }
+
+        //сообщение комнаты, line - "имя: текст"; по умолчанию выводится как обычное с именем комнаты
+        protected void processRoomMessage(String room, String line) throws IOException {
+            processIncomingMessage(String.format("[%s] %s", room, line));
+        }
+
         protected void informAboutAddingNewUser(String userName) {
             // Выводим информацию о добавлении участника
             String message = String.format("Участник с именем %s присоединился к чату.",userName);
@@ -46,6 +104,25 @@ public class Client {
             ConsoleHelper.writeMessage(message);
         }
 
+        //состав чата из USER_LIST, который может прийти несколькими частями; по умолчанию выводится число участников
+        protected void informAboutUserList(List<String> userNames, boolean first, boolean last) {
+            if (first)
+                listedUsers = 0;
+            listedUsers += userNames.size();
+            if (last)
+                ConsoleHelper.writeMessage(String.format("Сейчас в чате участников: %d.", listedUsers));
+        }
+
+        //итог пачки изменений USERS_CHANGED: вошедшие и ушедшие не пересекаются, по умолчанию каждое выводится отдельно
+        protected void informAboutUserChanges(Collection<String> added, Collection<String> removed) {
+            for (String userName : removed) {
+                informAboutDeletingNewUser(userName);
+            }
+            for (String userName : added) {
+                informAboutAddingNewUser(userName);
+            }
+        }
+
         //notify главному потоку
         protected void notifyConnectionStatusChanged(boolean clientConnected) {
             Client.this.clientConnected = clientConnected;
@@ -54,19 +131,52 @@ public class Client {
             }
         }
 
-        //предоставление клиента серверу
+        //предоставление клиента серверу; после обрыва - попытка продолжить прежнюю сессию
         protected void clientHandshake() throws IOException, ClassNotFoundException {
+            boolean resuming = false;
             while (true) {
                 //получение сообщения
                 Message message = connection.receive();
                 //если сообщение - "сервер запросил имя", отправить имя серверу
                 if (message.getType() == MessageType.NAME_REQUEST) {
-                    String userName = getUserName();
+                    //сервер предложил версию протокола - сначала переходим на нее, имя отправим на повторный запрос
+                    int version = Protocol.negotiate(message.getData());
+                    if (version != connection.getProtocolVersion()) {
+                        boolean compress = version >= Protocol.COMPRESSION && Protocol.COMPRESS;
+                        connection.send(compress
+                                ? new Message(MessageType.PROTOCOL, String.valueOf(version), Protocol.DEFLATE)
+                                : new Message(MessageType.PROTOCOL, String.valueOf(version)));
+                        connection.useProtocol(version);
+                        if (compress)
+                            connection.enableCompression();
+                        continue;
+                    }
+                    //есть сессия - просим ее продолжить; повторный запрос имени значит, что сессии больше нет
+                    if (sessionToken != null && !resuming && version >= Protocol.SESSIONS) {
+                        connection.send(new Message(MessageType.SESSION_RESUME, sessionToken, String.valueOf(received)));
+                        resuming = true;
+                        continue;
+                    }
+                    if (sessionToken != null) {
+                        sessionToken = null;
+                        connection.send(new Message(MessageType.USER_NAME, userName));
+                        continue;
+                    }
+                    userName = getUserName();
                     connection.send(new Message(MessageType.USER_NAME, userName));
                 }
                 //если сообщение - "сервер принял имя", сообщить главному потоку и выйти из метода
                 else if (message.getType() == MessageType.NAME_ACCEPTED) {
-                    notifyConnectionStatusChanged(true);
+                    if (connection.getProtocolVersion() >= Protocol.HEARTBEAT)
+                        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+                    resumed = resuming && sessionToken != null;
+                    if (!resumed)
+                        received = 0;
+                    sessionToken = message.getData();
+                    if (!connectedOnce) {
+                        connectedOnce = true;
+                        notifyConnectionStatusChanged(true);
+                    }
                     return;
                 }
                 //если сообщение - другого типа, возникает исключение
@@ -74,11 +184,93 @@ public class Client {
             }
         }
 
+        //очередное сообщение сервера; обрыв соединения при открытой сессии скрыт переподключением,
+        //а на PING отвечаем здесь же (он не входит в нумерацию сообщений сессии)
+        protected Message receiveMessage() throws IOException, ClassNotFoundException {
+            while (true) {
+                try {
+                    Message message = connection.receive();
+                    if (message.getType() == MessageType.PING) {
+                        connection.send(new Message(MessageType.PONG));
+                        continue;
+                    }
+                    //сервер останавливается и сам закроет соединение; переподключаемся не сразу, а через указанное время
+                    if (message.getType() == MessageType.RECONNECT_HINT) {
+                        try {
+                            reconnectHintMillis = Math.max(0, Long.parseLong(message.getData()));
+                        } catch (NumberFormatException ignored) {
+                        }
+                        continue;
+                    }
+                    received++;
+                    return message;
+                } catch (IOException e) {
+                    if (sessionToken == null || closing)
+                        throw e;
+                    reconnect();
+                }
+            }
+        }
+
+        //повторные попытки с экспоненциальной задержкой и случайным разбросом, чтобы клиенты
+        //после общего сбоя не переподключались одновременно
+        private void reconnect() throws IOException, ClassNotFoundException {
+            reconnecting = true;
+            //задержку с разбросом выбрал сервер, поэтому первая попытка - ровно через нее
+            long hint = reconnectHintMillis;
+            reconnectHintMillis = 0;
+            ConsoleHelper.writeMessage(hint > 0
+                    ? String.format("Сервер перезапускается, переподключение через %.1f с...", hint / 1000.0)
+                    : "Соединение с сервером потеряно, переподключаемся...");
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hint + RECONNECT_TIMEOUT_MILLIS);
+            long delay = RECONNECT_INITIAL_DELAY_MILLIS;
+            try {
+                while (true) {
+                    try {
+                        Thread.sleep(hint > 0 ? hint : delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+                        hint = 0;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Переподключение прервано");
+                    }
+                    try {
+                        connection = connect();
+                        clientHandshake();
+                        if (!resumed)
+                            requestHistory();
+                        ConsoleHelper.writeMessage(resumed ? "Соединение восстановлено." : "Соединение восстановлено, начата новая сессия.");
+                        return;
+                    } catch (IOException e) {
+                        if (System.nanoTime() - deadline > 0)
+                            throw e;
+                        delay = Math.min(delay * 2, RECONNECT_MAX_DELAY_MILLIS);
+                    }
+                }
+            } finally {
+                reconnecting = false;
+            }
+        }
+
+        private Connection connect() throws IOException {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(serverAddress, serverPort), CONNECT_TIMEOUT_MILLIS);
+                return new Connection(socket);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
         //цикл обработки сообщений сервера
         protected void clientMainLoop() throws IOException, ClassNotFoundException {
             while (true) {
                 //получение сообщения
-                Message message = connection.receive();
+                Message message = receiveMessage();
                 //если сообщение - "текст", вывести в консоль
                 if (message.getType() == MessageType.TEXT) {
                     processIncomingMessage(message.getData());
@@ -91,21 +283,92 @@ public class Client {
                 else if (message.getType() == MessageType.USER_REMOVED) {
                     informAboutDeletingNewUser(message.getData());
                 }
+                //если сообщение - состав чата при входе, передать его целиком
+                else if (message.getType() == MessageType.USER_LIST) {
+                    String[] fields = message.getFields();
+                    if (fields.length >= 2) {
+                        int part = Integer.parseInt(fields[0]);
+                        int parts = Integer.parseInt(fields[1]);
+                        informAboutUserList(Arrays.asList(fields).subList(2, fields.length), part == 0, part == parts - 1);
+                    }
+                }
+                //если сообщение - пачка изменений состава, свести ее к итоговому состоянию каждого имени
+                else if (message.getType() == MessageType.USERS_CHANGED) {
+                    Map<String, Boolean> changes = new LinkedHashMap<>();
+                    for (String change : message.getFields()) {
+                        if (change.length() > 1)
+                            changes.put(change.substring(1), change.charAt(0) == '+');
+                    }
+                    List<String> added = new ArrayList<>();
+                    List<String> removed = new ArrayList<>();
+                    for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+                        (change.getValue() ? added : removed).add(change.getKey());
+                    }
+                    informAboutUserChanges(added, removed);
+                }
+                //если сообщение - из комнаты, вывести его с именем комнаты
+                else if (message.getType() == MessageType.ROOM_TEXT) {
+                    String[] fields = message.getFields(2);
+                    if (fields.length == 2)
+                        processRoomMessage(fields[0], fields[1]);
+                }
+                //если сообщение - личное, вывести его с именем отправителя
+                else if (message.getType() == MessageType.PRIVATE) {
+                    String[] fields = message.getFields(2);
+                    if (fields.length == 2)
+                        processPrivateMessage(fields[0], fields[1]);
+                }
+                //если сервер отбросил сообщения из-за превышения частоты
+                else if (message.getType() == MessageType.THROTTLED) {
+                    processIncomingMessage(String.format("Слишком много сообщений, часть отброшена сервером. Повторите через %s мс.", message.getData()));
+                }
+                //если сообщение - подтверждение входа или выхода из комнаты
+                else if (message.getType() == MessageType.ROOM_JOIN) {
+                    processIncomingMessage(String.format("Вы вошли в комнату %s.", message.getData()));
+                }
+                else if (message.getType() == MessageType.ROOM_LEAVE) {
+                    processIncomingMessage(String.format("Вы вышли из комнаты %s.", message.getData()));
+                }
+                //если сообщение - результаты поиска, вывести найденное с временем отправки
+                else if (message.getType() == MessageType.SEARCH) {
+                    String[] fields = message.getFields();
+                    int found = (fields.length - 1) / 3;
+                    if (fields.length > 0)
+                        processIncomingMessage(found == 0
+                                ? String.format("Поиск «%s»: ничего не найдено.", fields[0])
+                                : String.format("Поиск «%s»: найдено %d.", fields[0], found));
+                    for (int i = 1; i + 2 < fields.length; i += 3) {
+                        String time = SEARCH_TIME.format(Instant.ofEpochMilli(Long.parseLong(fields[i + 1])));
+                        processIncomingMessage(String.format("[%s] %s", time, fields[i + 2]));
+                    }
+                }
+                //история уже пришла обычными TEXT, смещение конца нужно только для "/history since"
+                else if (message.getType() == MessageType.HISTORY_END) {
+                    continue;
+                }
                 //если сообщение - другого типа, возникает исключение
                 else throw new IOException("Unexpected project.MessageType");
             }
         }
 
+        //историю выдает только сервер, поддерживающий двоичный протокол
+        protected void requestHistory() throws IOException {
+            int size = getHistorySize();
+            if (size > 0 && connection.getProtocolVersion() >= Protocol.BINARY)
+                connection.send(new Message(MessageType.HISTORY_REQUEST, "last", String.valueOf(size)));
+        }
+
         //основной метод работы клиентского Thread
         @Override
         public void run() {
             //Запрос адреса и порта сервера
-            String serverAddress = getServerAddress();
-            int serverPort = getServerPort();
+            serverAddress = getServerAddress();
+            serverPort = getServerPort();
             //создаем соединение, выполняем "рукопожатие" и обрабатываем сообщания сервера
             try {
                 connection = new Connection(new Socket(serverAddress,serverPort));
                 clientHandshake();
+                requestHistory();
                 clientMainLoop();
             } catch (IOException | ClassNotFoundException e) {
                 notifyConnectionStatusChanged(false);
@@ -117,12 +380,35 @@ public class Client {
         return new SocketThread();
     }
 
+    //текст может быть командой комнат, см. ChatCommands
     protected void sendTextMessage(String text) {
+        sendMessage(ChatCommands.toMessage(text));
+    }
+
+    protected void sendMessage(Message message) {
         try {
-            connection.send(new Message(MessageType.TEXT, text));
+            //сервер без поиска не знает типа SEARCH и закрыл бы соединение
+            if (message.getType() == MessageType.SEARCH && connection.getProtocolVersion() < Protocol.SEARCH) {
+                ConsoleHelper.writeMessage("Сервер не поддерживает поиск");
+                return;
+            }
+            connection.send(message);
         } catch (IOException e) {
             ConsoleHelper.writeMessage("Не удалось отправить сообщение");
-            clientConnected = false;
+            //во время переподключения сессия еще может восстановиться
+            if (!reconnecting)
+                clientConnected = false;
+        }
+    }
+
+    //выход по команде: сервер сразу освобождает имя, а не ждет переподключения
+    private void closeSession() {
+        closing = true;
+        try {
+            if (connection.getProtocolVersion() >= Protocol.SESSIONS)
+                connection.send(new Message(MessageType.SESSION_CLOSE));
+            connection.close();
+        } catch (IOException ignored) {
         }
     }
 
@@ -134,9 +420,8 @@ public class Client {
     //после этого в цикле считывать сообщения с консоли и отправлять их серверу
     public void run() {
         SocketThread newThread = getSocketThread();
-        // Помечаем поток как daemon
-        newThread.setDaemon(true);
-        newThread.start();
+        // Запускаем как daemon: в обычном потоке или, при -Dchat.threads=virtual, в виртуальном
+        ConnectionThreads.start(newThread, true);
 
         try {
             synchronized (this) {
@@ -157,6 +442,7 @@ public class Client {
         while (clientConnected) {
             String text = ConsoleHelper.readString();
             if (text.equals("exit")) {
+                closeSession();
                 return;
             }
 
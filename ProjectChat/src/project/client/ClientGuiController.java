@@ -1,10 +1,31 @@
 package project.client;
 
+import javax.swing.Timer;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
+//Поток соединения не трогает модель и окно: сообщения и изменения состава чата складываются в очереди
+//без блокировок, а EDT забирает их пачкой не чаще -Dchat.gui.fps раз в секунду (по умолчанию 30).
+//Поток сообщений в сотни в секунду стоит так несколько перерисовок в секунду, а не по одной на сообщение.
 public class ClientGuiController extends Client {
+    private static final int FRAME_MILLIS = 1000 / Math.max(1, Integer.getInteger("chat.gui.fps", 30));
+
     private ClientGuiModel model = new ClientGuiModel();
     private ClientGuiView view = new ClientGuiView(this);
+    private final Queue<String> pendingMessages = new ConcurrentLinkedQueue<>();
+    private final Queue<Consumer<ClientGuiModel>> pendingUserChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+    private final Timer frameTimer = new Timer(FRAME_MILLIS, e -> applyFrame());
+
+    public ClientGuiController() {
+        frameTimer.setRepeats(false);
+    }
 
     @Override
     protected SocketThread getSocketThread() {
@@ -35,6 +56,38 @@ public class ClientGuiController extends Client {
         return model;
     }
 
+    //первое изменение после кадра заводит таймер, остальные до его срабатывания попадают в ту же пачку
+    private void scheduleFrame() {
+        if (frameScheduled.compareAndSet(false, true))
+            frameTimer.start();
+    }
+
+    //выполняется в EDT; флаг сбрасывается до разбора очередей, чтобы сообщение, пришедшее во время кадра, завело следующий
+    private void applyFrame() {
+        frameScheduled.set(false);
+        boolean usersChanged = false;
+        Consumer<ClientGuiModel> change;
+        while ((change = pendingUserChanges.poll()) != null) {
+            change.accept(model);
+            usersChanged = true;
+        }
+        if (usersChanged)
+            view.refreshUsers();
+
+        List<String> batch = new ArrayList<>();
+        String message;
+        while ((message = pendingMessages.poll()) != null) {
+            batch.add(message);
+        }
+        if (!batch.isEmpty())
+            view.refreshMessages(batch, model.addMessages(batch));
+    }
+
+    private void changeUsers(Consumer<ClientGuiModel> change) {
+        pendingUserChanges.add(change);
+        scheduleFrame();
+    }
+
     public static void main(String[] args) {
         Client client = new ClientGuiController();
         client.run();
@@ -43,20 +96,29 @@ public class ClientGuiController extends Client {
     public class GuiSocketThread extends Client.SocketThread {
         @Override
         protected void processIncomingMessage(String message) throws IOException {
-            model.setNewMessage(message);
-            view.refreshMessages();
+            pendingMessages.add(message);
+            scheduleFrame();
         }
 
         @Override
         protected void informAboutAddingNewUser(String userName) {
-            model.addUser(userName);
-            view.refreshUsers();
+            changeUsers(model -> model.addUser(userName));
         }
 
         @Override
         protected void informAboutDeletingNewUser(String userName) {
-            model.deleteUser(userName);
-            view.refreshUsers();
+            changeUsers(model -> model.deleteUser(userName));
+        }
+
+        //список пользователей перерисовывается один раз за кадр, сколько бы частей списка или изменений ни пришло
+        @Override
+        protected void informAboutUserList(List<String> userNames, boolean first, boolean last) {
+            changeUsers(first ? model -> model.setUsers(userNames) : model -> model.addUsers(userNames));
+        }
+
+        @Override
+        protected void informAboutUserChanges(Collection<String> added, Collection<String> removed) {
+            changeUsers(model -> model.updateUsers(added, removed));
         }
 
         @Override
@@ -1,23 +1,53 @@
 package project.client;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+//Состояние окна чата. Изменяется только из EDT (см. ClientGuiController)
 public class ClientGuiModel {
+    //-Dchat.gui.scrollback - сколько последних сообщений хранит и показывает окно
+    static final int SCROLLBACK = Math.max(1, Integer.getInteger("chat.gui.scrollback", 5000));
+
     private final Set<String> allUserNames = new HashSet<>();
-    private String newMessage;
+    //кольцевой буфер последних сообщений: за день в чате память не растет
+    private final String[] scrollback = new String[SCROLLBACK];
+    private int first;
+    private int count;
 
     public Set<String> getAllUserNames() {
         return Collections.unmodifiableSet(allUserNames);
     }
 
-    public String getNewMessage() {
-        return newMessage;
+    //сообщения от старых к новым
+    public List<String> getMessages() {
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(scrollback[(first + i) % scrollback.length]);
+        }
+        return result;
     }
 
-    public void setNewMessage(String newMessage) {
-        this.newMessage = newMessage;
+    //пачка сообщений дописывается в конец, самые старые вытесняются. Результат - длина вытесненного текста,
+    //который уже показан (каждое сообщение - строка с переводом строки), или -1, если пачка не меньше
+    //всего буфера и окно проще заполнить заново
+    public int addMessages(List<String> batch) {
+        boolean replaced = batch.size() >= scrollback.length;
+        int removedChars = 0;
+        for (String message : batch) {
+            if (count < scrollback.length) {
+                scrollback[(first + count++) % scrollback.length] = message;
+                continue;
+            }
+            if (!replaced)
+                removedChars += scrollback[first].length() + 1;
+            scrollback[first] = message;
+            first = (first + 1) % scrollback.length;
+        }
+        return replaced ? -1 : removedChars;
     }
 
     public void addUser(String newUserName) {
@@ -27,4 +57,20 @@ public class ClientGuiModel {
     public void deleteUser(String userName) {
         allUserNames.remove(userName);
     }
+
+    //список участников целиком, с сервера он приходит при входе
+    public void setUsers(Collection<String> userNames) {
+        allUserNames.clear();
+        allUserNames.addAll(userNames);
+    }
+
+    public void addUsers(Collection<String> userNames) {
+        allUserNames.addAll(userNames);
+    }
+
+    //пачка изменений состава чата; added и removed не пересекаются
+    public void updateUsers(Collection<String> added, Collection<String> removed) {
+        allUserNames.removeAll(removed);
+        allUserNames.addAll(added);
+    }
 }
@@ -4,6 +4,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.List;
 
 public class ClientGuiView {
     private final ClientGuiController controller;
@@ -91,10 +92,27 @@ public class ClientGuiView {
 
     }
 
-    public void refreshMessages() {
-        messages.append(controller.getModel().getNewMessage() + "\n");
+    //вызывается из EDT раз за кадр: пачка дописывается одной вставкой, вытесненный текст удаляется из начала,
+    //так что обновление стоит одной перерисовки, а не по одной на сообщение
+    public void refreshMessages(List<String> batch, int removedChars) {
+        if (removedChars < 0) {
+            messages.setText(lines(controller.getModel().getMessages()));
+            return;
+        }
+        messages.append(lines(batch));
+        if (removedChars > 0)
+            messages.replaceRange("", 0, removedChars);
+    }
+
+    private static String lines(List<String> messages) {
+        StringBuilder sb = new StringBuilder();
+        for (String message : messages) {
+            sb.append(message).append("\n");
+        }
+        return sb.toString();
     }
 
+    //вызывается из EDT
     public void refreshUsers() {
         ClientGuiModel model = controller.getModel();
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,29 @@
+package project.client;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+//Команды даты и времени. Форматы создаются один раз при регистрации: DateTimeFormatter неизменяем
+//и потокобезопасен, поэтому его разделяют все боты, а не создают заново на каждую команду
+public class DateTimeHandler implements BotHandler {
+    @Override
+    public void register(BotCommands.Builder commands) {
+        now(commands, "дата", "d.MM.uuuu");
+        now(commands, "день", "d");
+        //LLLL - название месяца в именительном падеже ("октябрь", а не "октября")
+        now(commands, "месяц", "LLLL");
+        now(commands, "год", "uuuu");
+        now(commands, "время", "H:mm:ss");
+        now(commands, "час", "H");
+        now(commands, "минуты", "m");
+        now(commands, "секунды", "s");
+    }
+
+    private static void now(BotCommands.Builder commands, String name, String pattern) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(pattern);
+        //команды без аргументов: "день хороший" - не команда
+        commands.command(name, (sender, arguments) -> arguments.isEmpty()
+                ? String.format("Информация для %s: %s", sender, formatter.format(ZonedDateTime.now()))
+                : null);
+    }
+}
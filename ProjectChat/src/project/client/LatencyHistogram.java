@@ -0,0 +1,100 @@
+package project.client;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+//Гистограмма задержек в микросекундах с логарифмически-линейными ячейками, как у HdrHistogram:
+//до 128 мкс каждая ячейка - одна микросекунда, дальше в каждой степени двойки 64 ячейки (погрешность ~1.6%).
+//Запись - один атомарный инкремент без блокировок, поэтому в нее одновременно пишут все симулированные клиенты.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int MAX_EXPONENT = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR_LIMIT + MAX_EXPONENT * SUB_BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final DoubleAdder sumOfSquares = new DoubleAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(micros));
+        total.increment();
+        sum.add(micros);
+        sumOfSquares.add((double) micros * micros);
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+        }
+    }
+
+    long count() {
+        return total.sum();
+    }
+
+    double meanMillis() {
+        long count = total.sum();
+        return count == 0 ? 0 : sum.sum() / 1000.0 / count;
+    }
+
+    double stdDeviationMillis() {
+        long count = total.sum();
+        if (count == 0) return 0;
+        double mean = sum.sum() / (double) count;
+        return Math.sqrt(Math.max(0, sumOfSquares.sum() / count - mean * mean)) / 1000.0;
+    }
+
+    double maxMillis() {
+        return max.get() / 1000.0;
+    }
+
+    //верхняя граница ячейки, в которую попадает заданная доля значений
+    double percentileMillis(double percentile) {
+        long count = total.sum();
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(upperBound(i), max.get()) / 1000.0;
+        }
+        return maxMillis();
+    }
+
+    //распределение в текстовом формате HdrHistogram (.hgrm), который понимают его инструменты построения графиков
+    void printDistribution(PrintStream out) {
+        long count = total.sum();
+        out.printf("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+        long seen = 0;
+        for (int i = 0; i < counts.length() && seen < count; i++) {
+            long inBucket = counts.get(i);
+            if (inBucket == 0) continue;
+            seen += inBucket;
+            double fraction = (double) seen / count;
+            if (fraction < 1.0)
+                out.printf("%12.3f %2.12f %10d %14.2f%n", upperBound(i) / 1000.0, fraction, seen, 1 / (1 - fraction));
+            else
+                out.printf("%12.3f %2.12f %10d%n", upperBound(i) / 1000.0, fraction, seen);
+        }
+        out.printf("#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", meanMillis(), stdDeviationMillis());
+        out.printf("#[Max     = %12.3f, Total count    = %12d]%n", maxMillis(), count);
+    }
+
+    private static int index(long micros) {
+        if (micros < LINEAR_LIMIT) return (int) micros;
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS, MAX_EXPONENT);
+        long mantissa = Math.min(micros >>> exponent, 2 * SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - 1) * SUB_BUCKETS + (int) (mantissa - SUB_BUCKETS);
+    }
+
+    private static long upperBound(int index) {
+        if (index < LINEAR_LIMIT) return index;
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long mantissa = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << exponent) - 1;
+    }
+}
@@ -0,0 +1,210 @@
+package project.client;
+
+import project.ConnectionThreads;
+import project.ConsoleHelper;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+//Нагрузочный тест сервера: N симулированных пользователей на обычном клиентском коде (рукопожатие,
+//согласование протокола, сессии) шлют сообщения с заданной частотой и измеряют задержку рассылки
+//от момента, когда сообщение должно было уйти, до получения его каждым участником. Так задержка
+//учитывает и ожидание отправителя, если он не успевает за расписанием (coordinated omission).
+//Запуск: java -Dchat.load.users=500 -Dchat.load.rate=2 project.client.LoadGenerator <порт>
+//Результат дописывается строкой в CSV (-Dchat.load.report), распределение задержек - в файл .hgrm рядом.
+public class LoadGenerator {
+    private static final String HOST = System.getProperty("chat.load.host", "localhost");
+    private static final int USERS = Integer.getInteger("chat.load.users", 100);
+    //сообщений в секунду от каждого пользователя
+    private static final double RATE = Double.parseDouble(System.getProperty("chat.load.rate", "1"));
+    private static final long WARMUP_SECONDS = Long.getLong("chat.load.warmup", 5);
+    private static final long DURATION_SECONDS = Long.getLong("chat.load.duration", 30);
+    private static final String LABEL = System.getProperty("chat.load.label", "default");
+    private static final String REPORT = System.getProperty("chat.load.report", "load-report.csv");
+    private static final String MARKER = ": #";
+
+    private final int port;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final CountDownLatch connected = new CountDownLatch(USERS);
+    private volatile boolean measuring;
+    private volatile boolean running = true;
+
+    private LoadGenerator(int port) {
+        this.port = port;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Симулированные пользователи по умолчанию работают в виртуальных потоках (если JVM их поддерживает)
+        if (System.getProperty("chat.threads") == null)
+            System.setProperty("chat.threads", "virtual");
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : ConsoleHelper.readInt();
+        new LoadGenerator(port).run();
+        System.exit(0);
+    }
+
+    private void run() throws InterruptedException, IOException {
+        ConsoleHelper.writeMessage(String.format("Подключаем %d пользователей к %s:%d...", USERS, HOST, port));
+        List<SimulatedUser> users = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            SimulatedUser user = new SimulatedUser(i);
+            users.add(user);
+            ConnectionThreads.start(user.getSocketThread(), true);
+        }
+        if (!connected.await(60, TimeUnit.SECONDS)) {
+            ConsoleHelper.writeMessage("Подключились не все пользователи: " + (USERS - connected.getCount()) + " из " + USERS);
+        }
+
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / RATE);
+        long start = System.nanoTime();
+        for (SimulatedUser user : users) {
+            // Пользователи начинают со сдвигом, чтобы не отправлять все сообщения в одно мгновение
+            long offset = periodNanos * user.index / USERS;
+            ConnectionThreads.start(() -> user.sendLoop(start + offset, periodNanos), true);
+        }
+
+        TimeUnit.SECONDS.sleep(WARMUP_SECONDS);
+        measuring = true;
+        long measuredFrom = System.nanoTime();
+        long sentBefore = sent.sum();
+        long receivedBefore = received.sum();
+        TimeUnit.SECONDS.sleep(DURATION_SECONDS);
+        measuring = false;
+        double seconds = (System.nanoTime() - measuredFrom) / 1e9;
+        running = false;
+
+        report((sent.sum() - sentBefore) / seconds, (received.sum() - receivedBefore) / seconds);
+    }
+
+    private void report(double sentPerSecond, double receivedPerSecond) throws IOException {
+        ConsoleHelper.writeMessage(String.format(Locale.ROOT,
+                "Подключение: p50 %.2f мс, p99 %.2f мс; отправлено %.0f/с, доставлено %.0f/с; " +
+                        "задержка p50 %.2f мс, p99 %.2f мс, p99.9 %.2f мс, max %.2f мс",
+                connectTime.percentileMillis(50), connectTime.percentileMillis(99), sentPerSecond, receivedPerSecond,
+                latency.percentileMillis(50), latency.percentileMillis(99), latency.percentileMillis(99.9), latency.maxMillis()));
+
+        Path report = Paths.get(REPORT);
+        boolean header = !Files.exists(report);
+        try (PrintStream out = new PrintStream(new FileOutputStream(report.toFile(), true), true, StandardCharsets.UTF_8.name())) {
+            if (header)
+                out.println("label,users,rate,duration_s,connected,connect_p50_ms,connect_p99_ms,sent_per_s,received_per_s," +
+                        "latency_p50_ms,latency_p99_ms,latency_p999_ms,latency_max_ms,latency_count");
+            out.println(String.format(Locale.ROOT, "%s,%d,%.2f,%d,%d,%.3f,%.3f,%.1f,%.1f,%.3f,%.3f,%.3f,%.3f,%d",
+                    LABEL, USERS, RATE, DURATION_SECONDS, USERS - connected.getCount(),
+                    connectTime.percentileMillis(50), connectTime.percentileMillis(99), sentPerSecond, receivedPerSecond,
+                    latency.percentileMillis(50), latency.percentileMillis(99), latency.percentileMillis(99.9),
+                    latency.maxMillis(), latency.count()));
+        }
+
+        String distribution = REPORT.replaceFirst("\\.csv$", "") + "-" + LABEL + ".hgrm";
+        try (PrintStream out = new PrintStream(new FileOutputStream(distribution), true, StandardCharsets.UTF_8.name())) {
+            latency.printDistribution(out);
+        }
+        ConsoleHelper.writeMessage("Отчет: " + report.toAbsolutePath() + ", распределение задержек: " + distribution);
+    }
+
+    //обычный клиент без консоли: имя, адрес и порт заданы, входящие сообщения только измеряются
+    private class SimulatedUser extends Client {
+        private final int index;
+        private final String userName;
+
+        SimulatedUser(int index) {
+            this.index = index;
+            this.userName = "load_" + index;
+        }
+
+        @Override
+        protected String getServerAddress() {
+            return HOST;
+        }
+
+        @Override
+        protected int getServerPort() {
+            return port;
+        }
+
+        @Override
+        protected String getUserName() {
+            return userName;
+        }
+
+        @Override
+        protected int getHistorySize() {
+            return 0;
+        }
+
+        @Override
+        protected SocketThread getSocketThread() {
+            return new LoadSocketThread();
+        }
+
+        //в тексте - время, когда сообщение должно было уйти по расписанию
+        void sendLoop(long firstSend, long periodNanos) {
+            long next = firstSend;
+            while (running) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+                sendTextMessage("#" + next);
+                sent.increment();
+                next += periodNanos;
+            }
+        }
+
+        private class LoadSocketThread extends SocketThread {
+            private final long startedAt = System.nanoTime();
+
+            @Override
+            protected void processIncomingMessage(String message) {
+                int marker = message.indexOf(MARKER);
+                if (marker < 0) return;
+                long scheduledAt;
+                try {
+                    scheduledAt = Long.parseLong(message.substring(marker + MARKER.length()));
+                } catch (NumberFormatException e) {
+                    return;
+                }
+                received.increment();
+                if (measuring)
+                    latency.recordNanos(System.nanoTime() - scheduledAt);
+            }
+
+            @Override
+            protected void informAboutUserList(List<String> userNames, boolean first, boolean last) {
+            }
+
+            @Override
+            protected void informAboutAddingNewUser(String userName) {
+            }
+
+            @Override
+            protected void informAboutDeletingNewUser(String userName) {
+            }
+
+            @Override
+            protected void notifyConnectionStatusChanged(boolean clientConnected) {
+                super.notifyConnectionStatusChanged(clientConnected);
+                if (clientConnected) {
+                    connectTime.recordNanos(System.nanoTime() - startedAt);
+                    connected.countDown();
+                }
+            }
+        }
+    }
+}
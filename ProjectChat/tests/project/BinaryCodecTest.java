@@ -0,0 +1,146 @@
+package project;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryCodecTest {
+    //ASCII, кириллица (2 байта), знаки по 3 байта, суррогатная пара (4 байта) и разделитель полей
+    private static final String MIXED = "bob: привет € 😀" + Message.FIELD_SEPARATOR + "конец";
+
+    @Test
+    void utf8LengthMatchesStringGetBytes() {
+        for (String s : new String[]{"", "abc", "привет", "€", "😀", MIXED, "a\uD800b", "\uDC00", "x\uD83D"}) {
+            assertEquals(s.getBytes(StandardCharsets.UTF_8).length, BinaryCodec.utf8Length(s), s);
+        }
+    }
+
+    //непарный суррогат кодируется так же, как в String.getBytes
+    @Test
+    void encodesLikeStringGetBytes() {
+        String text = MIXED + "\uD800";
+        byte[] frame = BinaryCodec.encode(new Message(MessageType.TEXT, text));
+        byte[] data = new byte[frame.length - BinaryCodec.HEADER_LENGTH];
+        System.arraycopy(frame, BinaryCodec.HEADER_LENGTH, data, 0, data.length);
+        assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), data);
+    }
+
+    @Test
+    void roundTripsMessagesWithAndWithoutData() throws StreamCorruptedException {
+        assertRoundTrip(new Message(MessageType.PING));
+        assertRoundTrip(new Message(MessageType.TEXT, ""));
+        assertRoundTrip(new Message(MessageType.TEXT, MIXED));
+        assertRoundTrip(new Message(MessageType.USER_LIST, "0", "1", "alice", "bob"));
+    }
+
+    //кадр, записанный в буфер ровно его длины и с ненулевой позиции, не выходит за свои границы
+    @Test
+    void encodesIntoExactlySizedBufferAtOffset() throws StreamCorruptedException {
+        Message message = new Message(MessageType.TEXT, MIXED);
+        int length = BinaryCodec.frameLength(message);
+
+        ByteBuffer exact = ByteBuffer.allocate(length);
+        BinaryCodec.encode(message, exact);
+        assertEquals(0, exact.remaining());
+
+        ByteBuffer shifted = ByteBuffer.allocate(length + 10);
+        shifted.position(7);
+        BinaryCodec.encode(message, shifted);
+        assertEquals(7 + length, shifted.position());
+        shifted.flip().position(7);
+        assertMessage(message, BinaryCodec.decode(shifted));
+        assertEquals(7 + length, shifted.position());
+    }
+
+    //буфер, обрезанный на любом байте: null и прежняя позиция, пока кадр не пришел полностью
+    @Test
+    void waitsForCompleteFrameAtEveryCut() throws StreamCorruptedException {
+        Message first = new Message(MessageType.TEXT, MIXED);
+        Message second = new Message(MessageType.SESSION_CLOSE);
+        byte[] a = BinaryCodec.encode(first);
+        byte[] b = BinaryCodec.encode(second);
+        byte[] stream = new byte[a.length + b.length];
+        System.arraycopy(a, 0, stream, 0, a.length);
+        System.arraycopy(b, 0, stream, a.length, b.length);
+
+        for (int cut = 0; cut <= stream.length; cut++) {
+            ByteBuffer buffer = ByteBuffer.wrap(stream, 0, cut);
+            if (cut < a.length) {
+                assertNull(BinaryCodec.decode(buffer), "разрез на байте " + cut);
+                assertEquals(0, buffer.position());
+                continue;
+            }
+            assertMessage(first, BinaryCodec.decode(buffer));
+            assertEquals(a.length, buffer.position());
+            if (cut < stream.length) {
+                assertNull(BinaryCodec.decode(buffer), "разрез на байте " + cut);
+                assertEquals(a.length, buffer.position());
+            } else {
+                assertMessage(second, BinaryCodec.decode(buffer));
+                assertEquals(stream.length, buffer.position());
+            }
+        }
+    }
+
+    //срез общего массива (arrayOffset != 0), как у входящего буфера после compact
+    @Test
+    void decodesFromSlice() throws StreamCorruptedException {
+        Message message = new Message(MessageType.PRIVATE, "alice", "привет");
+        byte[] frame = BinaryCodec.encode(message);
+        byte[] padded = new byte[frame.length + 5];
+        System.arraycopy(frame, 0, padded, 5, frame.length);
+        ByteBuffer slice = ByteBuffer.wrap(padded, 5, frame.length).slice();
+        assertMessage(message, BinaryCodec.decode(slice));
+    }
+
+    //кадр наибольшей допустимой длины читается, на байт длиннее - отвергается до чтения данных
+    @Test
+    void acceptsFramesUpToMaxLength() throws IOException {
+        String data = "x".repeat(BinaryCodec.MAX_FRAME_LENGTH - 2);
+        Message message = new Message(MessageType.TEXT, data);
+        byte[] frame = BinaryCodec.encode(message);
+        assertMessage(message, BinaryCodec.read(new DataInputStream(new ByteArrayInputStream(frame)), null));
+
+        ByteBuffer oversized = ByteBuffer.allocate(BinaryCodec.HEADER_LENGTH);
+        oversized.putInt(BinaryCodec.MAX_FRAME_LENGTH + 1).put((byte) 0).put((byte) 0).flip();
+        assertThrows(StreamCorruptedException.class, () -> BinaryCodec.decode(oversized));
+    }
+
+    @Test
+    void rejectsMalformedFrames() {
+        ByteBuffer tooShort = ByteBuffer.allocate(BinaryCodec.LENGTH_FIELD + 1);
+        tooShort.putInt(1).put((byte) 0).flip();
+        assertThrows(StreamCorruptedException.class, () -> BinaryCodec.decode(tooShort));
+
+        ByteBuffer unknownType = ByteBuffer.allocate(BinaryCodec.HEADER_LENGTH);
+        unknownType.putInt(2).put((byte) MessageType.values().length).put((byte) 0).flip();
+        assertThrows(StreamCorruptedException.class, () -> BinaryCodec.decode(unknownType));
+
+        //сжатый кадр на соединении без согласованного сжатия
+        ByteBuffer compressed = ByteBuffer.allocate(BinaryCodec.HEADER_LENGTH + 1);
+        compressed.putInt(3).put((byte) MessageType.TEXT.ordinal())
+                .put((byte) (BinaryCodec.FLAG_HAS_DATA | BinaryCodec.FLAG_COMPRESSED)).put((byte) 0).flip();
+        assertThrows(StreamCorruptedException.class, () -> BinaryCodec.decode(compressed));
+    }
+
+    private static void assertRoundTrip(Message message) throws StreamCorruptedException {
+        byte[] frame = BinaryCodec.encode(message);
+        assertEquals(BinaryCodec.frameLength(message), frame.length);
+        assertMessage(message, BinaryCodec.decode(ByteBuffer.wrap(frame)));
+    }
+
+    private static void assertMessage(Message expected, Message actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getData(), actual.getData());
+    }
+}
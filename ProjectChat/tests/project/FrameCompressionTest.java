@@ -0,0 +1,98 @@
+package project;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Отправитель и получатель - две FrameCompression, как у двух сторон соединения
+class FrameCompressionTest {
+    private static final String LONG_TEXT = "alice: " + "релиз в пятницу, деплой после обеда; ".repeat(20);
+
+    private final FrameCompression sender = new FrameCompression();
+    private final FrameCompression receiver = new FrameCompression();
+
+    //без enableDeflate и для коротких кадров deflate возвращает тот же кадр
+    @Test
+    void passesFramesThroughUntilEnabledOrBelowThreshold() {
+        ByteBuffer large = frame(LONG_TEXT);
+        assertSame(large, sender.deflate(large));
+
+        sender.enableDeflate();
+        ByteBuffer small = frame("alice: коротко");
+        assertSame(small, sender.deflate(small));
+        ByteBuffer header = ByteBuffer.wrap(ObjectStreamFramer.streamHeader());
+        assertSame(header, sender.deflate(header));
+    }
+
+    //каждый кадр завершается SYNC_FLUSH, поэтому получатель разжимает его сразу, не дожидаясь следующих
+    @Test
+    void roundTripsEachFrameIndependentlyOfLaterOnes() throws StreamCorruptedException {
+        sender.enableDeflate();
+        for (int i = 0; i < 50; i++) {
+            Message message = new Message(MessageType.TEXT, LONG_TEXT + i);
+            ByteBuffer compressed = sender.deflate(frame(message));
+            assertEquals(BinaryCodec.FLAG_HAS_DATA | BinaryCodec.FLAG_COMPRESSED,
+                    compressed.get(BinaryCodec.LENGTH_FIELD + 1));
+            Message decoded = BinaryCodec.decode(compressed, receiver);
+            assertEquals(message.getType(), decoded.getType());
+            assertEquals(message.getData(), decoded.getData());
+        }
+    }
+
+    //словарь переходит от кадра к кадру: повтор уже отправленного текста сжимается в ссылку
+    @Test
+    void sharesDictionaryAcrossFrames() {
+        sender.enableDeflate();
+        int first = sender.deflate(frame(LONG_TEXT)).remaining();
+        int repeated = sender.deflate(frame(LONG_TEXT)).remaining();
+        assertTrue(repeated < first / 2, "первый кадр " + first + " байт, повтор " + repeated);
+    }
+
+    //поэтому кадры нельзя разжимать не по порядку: второй ссылается на данные первого
+    @Test
+    void rejectsFrameDecodedOutOfOrder() {
+        sender.enableDeflate();
+        sender.deflate(frame(LONG_TEXT));
+        ByteBuffer second = sender.deflate(frame(LONG_TEXT));
+        assertThrows(StreamCorruptedException.class, () -> BinaryCodec.decode(second, receiver));
+    }
+
+    //данные, которые сжимаются плохо, разжимаются с ростом буфера получателя
+    @Test
+    void roundTripsIncompressibleData() throws StreamCorruptedException {
+        sender.enableDeflate();
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(42);
+        while (text.length() < 200_000) {
+            text.append((char) ('а' + random.nextInt(32)));
+        }
+        Message message = new Message(MessageType.TEXT, text.toString());
+        assertEquals(message.getData(), BinaryCodec.decode(sender.deflate(frame(message)), receiver).getData());
+    }
+
+    @Test
+    void stopsAfterEnd() {
+        sender.enableDeflate();
+        ByteBuffer compressed = sender.deflate(frame(LONG_TEXT));
+        sender.end();
+        receiver.end();
+        ByteBuffer large = frame(LONG_TEXT);
+        assertSame(large, sender.deflate(large));
+        assertThrows(StreamCorruptedException.class, () -> BinaryCodec.decode(compressed, receiver));
+    }
+
+    private static ByteBuffer frame(String text) {
+        return frame(new Message(MessageType.TEXT, text));
+    }
+
+    private static ByteBuffer frame(Message message) {
+        return ByteBuffer.wrap(BinaryCodec.encode(message));
+    }
+}
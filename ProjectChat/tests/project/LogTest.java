@@ -0,0 +1,99 @@
+package project;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Log печатает в System.out из своего потока, поэтому вывод перехватывается на время теста,
+//а строки других тестов отсеиваются по метке
+class LogTest {
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private PrintStream original;
+
+    @BeforeEach
+    void captureOutput() {
+        Log.flush();
+        original = System.out;
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void restoreOutput() {
+        System.setOut(original);
+    }
+
+    @Test
+    void substitutesArgumentsInOrder() {
+        Log.writeMessage("log-test: {} и {} из {}", "alice", 2, 3L);
+        Log.writeMessage("log-test: без аргументов {}");
+        Log.writeMessage("log-test: лишние {} {} {} {}", 1, 2, 3);
+        Log.flush();
+        assertEquals(List.of(
+                "log-test: alice и 2 из 3",
+                "log-test: без аргументов null",
+                "log-test: лишние 1 2 3 {}"), lines("log-test: "));
+    }
+
+    //несколько потоков пишут одновременно: у каждого сообщения выходят в его порядке,
+    //и каждое либо напечатано, либо учтено строкой о переполнении
+    @Test
+    void keepsEveryProducerOrderedUnderContention() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 20_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    Log.writeMessage("log-ring: {} {}", producer, i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        Log.flush();
+
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        int printed = 0;
+        for (String line : lines("log-ring: ")) {
+            String[] fields = line.substring("log-ring: ".length()).split(" ");
+            int producer = Integer.parseInt(fields[0]);
+            int number = Integer.parseInt(fields[1]);
+            assertTrue(number > last[producer], "поток " + producer + ": " + number + " после " + last[producer]);
+            last[producer] = number;
+            printed++;
+        }
+        long dropped = 0;
+        Matcher overflow = Pattern.compile("пропущено сообщений: (\\d+)").matcher(text());
+        while (overflow.find()) {
+            dropped += Long.parseLong(overflow.group(1));
+        }
+        assertEquals((long) producers * perProducer, printed + dropped);
+    }
+
+    private String text() {
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private List<String> lines(String prefix) {
+        List<String> result = new ArrayList<>();
+        for (String line : text().split(System.lineSeparator())) {
+            if (line.startsWith(prefix)) result.add(line);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,142 @@
+package project;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Все соединения теста обслуживает один EventLoop, как при -Dchat.nio.loops=1: ошибка одного клиента
+//закрывает только его соединение, а следующий клиент того же цикла продолжает получать ответы
+class NioTransportTest {
+    private final List<Socket> clients = new ArrayList<>();
+    private EventLoop loop;
+    private ServerSocketChannel server;
+
+    @BeforeEach
+    void start() throws IOException {
+        loop = new EventLoop("test-loop");
+        loop.start();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", 0));
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        for (Socket client : clients) client.close();
+        server.close();
+        loop.interrupt();
+    }
+
+    //в потоке сериализации объект другого класса вместо Message
+    @Test
+    void closesOnlyConnectionThatSentOtherObject() throws Exception {
+        RecordingTransport bad = connect();
+        ObjectOutputStream out = new ObjectOutputStream(bad.client.getOutputStream());
+        out.writeObject("не сообщение");
+        out.flush();
+
+        assertTrue(bad.closed.await(5, TimeUnit.SECONDS));
+        assertTrue(bad.messages.isEmpty());
+        assertServesNextClient();
+    }
+
+    @Test
+    void closesOnlyConnectionThatSentMessageWithoutType() throws Exception {
+        RecordingTransport bad = connect();
+        ObjectOutputStream out = new ObjectOutputStream(bad.client.getOutputStream());
+        out.writeObject(new Message(null, "без типа"));
+        out.flush();
+
+        assertTrue(bad.closed.await(5, TimeUnit.SECONDS));
+        assertTrue(bad.messages.isEmpty());
+        assertServesNextClient();
+    }
+
+    //исключение в обработке сообщения (onMessage) тоже закрывает только это соединение
+    @Test
+    void closesOnlyConnectionWhoseHandlerFailed() throws Exception {
+        RecordingTransport bad = connect();
+        ObjectOutputStream out = new ObjectOutputStream(bad.client.getOutputStream());
+        out.writeObject(new Message(MessageType.TEXT, RecordingTransport.FAIL));
+        out.flush();
+
+        assertTrue(bad.closed.await(5, TimeUnit.SECONDS));
+        assertServesNextClient();
+    }
+
+    private void assertServesNextClient() throws Exception {
+        RecordingTransport good = connect();
+        ObjectOutputStream out = new ObjectOutputStream(good.client.getOutputStream());
+        out.writeObject(new Message(MessageType.TEXT, "привет"));
+        out.flush();
+
+        Message message = good.messages.poll(5, TimeUnit.SECONDS);
+        assertNotNull(message, "цикл не обработал сообщение второго клиента");
+        assertEquals(MessageType.TEXT, message.getType());
+        assertEquals("привет", message.getData());
+        assertEquals(1, good.closed.getCount());
+    }
+
+    private RecordingTransport connect() throws IOException {
+        Socket client = new Socket("localhost", server.socket().getLocalPort());
+        clients.add(client);
+        SocketChannel channel = server.accept();
+        channel.configureBlocking(false);
+        RecordingTransport transport = new RecordingTransport(channel, loop, client);
+        loop.execute(() -> {
+            try {
+                transport.open();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return transport;
+    }
+
+    //серверная сторона соединения, которая запоминает полученные сообщения
+    private static final class RecordingTransport extends NioTransport {
+        static final String FAIL = "сбой";
+
+        private final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private final Socket client;
+
+        RecordingTransport(SocketChannel channel, EventLoop loop, Socket client) throws IOException {
+            super(channel, loop, new OutboundQueue(16, OutboundQueue.OverflowPolicy.DISCONNECT));
+            this.client = client;
+        }
+
+        @Override
+        void open() throws IOException {
+            register();
+        }
+
+        @Override
+        void onMessage(Message message) {
+            if (FAIL.equals(message.getData())) throw new IllegalStateException("ошибка обработки");
+            messages.add(message);
+        }
+
+        @Override
+        void onClosed() {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package project;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ObjectStreamFramerTest {
+    private static final int HEADER = ObjectStreamFramer.streamHeader().length;
+
+    //поток, как его пишет Connection: второе и следующие сообщения ссылаются на описания классов первого,
+    //после reset таблица ссылок начинается заново
+    private final List<Integer> boundaries = new ArrayList<>();
+    private final byte[] stream = writeStream();
+
+    private byte[] writeStream() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new Message(MessageType.NAME_REQUEST, Protocol.offer()));
+            out.flush();
+            boundaries.add(bytes.size());
+            out.writeObject(new Message(MessageType.TEXT, "привет, " + "ж".repeat(300)));
+            out.flush();
+            boundaries.add(bytes.size());
+            out.writeObject(new Message(MessageType.USER_ADDED, "bob"));
+            out.flush();
+            boundaries.add(bytes.size());
+            out.reset();
+            out.writeObject(new Message(MessageType.PING));
+            out.flush();
+            boundaries.add(bytes.size());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    //поток приходит двумя частями, разрезанными в каждом возможном месте: границы кадров те же, что без разреза
+    @Test
+    void findsSameFramesWhateverTheSplit() throws StreamCorruptedException {
+        for (int split = HEADER; split <= stream.length; split++) {
+            ObjectStreamFramer framer = new ObjectStreamFramer(BinaryCodec.MAX_FRAME_LENGTH);
+            ByteBuffer buffer = ByteBuffer.allocate(stream.length);
+            List<Integer> found = new ArrayList<>();
+            int consumed = HEADER;
+
+            buffer.put(stream, HEADER, split - HEADER).flip();
+            consumed = readFrames(framer, buffer, consumed, found);
+            buffer.compact().put(stream, split, stream.length - split).flip();
+            readFrames(framer, buffer, consumed, found);
+
+            assertEquals(boundaries, found, "разрез на байте " + split);
+        }
+    }
+
+    //худший случай для неблокирующего чтения: по одному байту за раз
+    @Test
+    void findsFramesByteByByte() throws StreamCorruptedException {
+        ObjectStreamFramer framer = new ObjectStreamFramer(BinaryCodec.MAX_FRAME_LENGTH);
+        ByteBuffer buffer = ByteBuffer.allocate(stream.length);
+        List<Integer> found = new ArrayList<>();
+        int consumed = HEADER;
+        for (int i = HEADER; i < stream.length; i++) {
+            buffer.put(stream[i]).flip();
+            consumed = readFrames(framer, buffer, consumed, found);
+            buffer.compact();
+        }
+        assertEquals(boundaries, found);
+    }
+
+    //самодостаточные кадры рассылки начинаются с TC_RESET и читаются в том же потоке
+    @Test
+    void readsStandaloneFrames() throws IOException {
+        byte[] first = ObjectStreamFramer.encodeStandalone(new Message(MessageType.TEXT, "один"));
+        byte[] second = ObjectStreamFramer.encodeStandalone(new Message(MessageType.TEXT, "два"));
+        ByteBuffer buffer = ByteBuffer.allocate(first.length + second.length);
+        buffer.put(first).put(second).flip();
+
+        ObjectStreamFramer framer = new ObjectStreamFramer(BinaryCodec.MAX_FRAME_LENGTH);
+        assertEquals(first.length, framer.nextFrameLength(buffer));
+        buffer.position(first.length);
+        assertEquals(second.length, framer.nextFrameLength(buffer));
+    }
+
+    //незавершенный объект длиннее предела - ошибка, а не бесконечное ожидание
+    @Test
+    void rejectsOversizedObject() throws IOException {
+        byte[] frame = ObjectStreamFramer.encodeStandalone(new Message(MessageType.TEXT, "ж".repeat(300)));
+        ObjectStreamFramer framer = new ObjectStreamFramer(64);
+        ByteBuffer buffer = ByteBuffer.wrap(frame, 0, frame.length - 1);
+        assertThrows(StreamCorruptedException.class, () -> framer.nextFrameLength(buffer));
+    }
+
+    //все целые кадры из буфера; возвращает, сколько байт потока (от его начала) уже разобрано
+    private static int readFrames(ObjectStreamFramer framer, ByteBuffer buffer, int consumed, List<Integer> found)
+            throws StreamCorruptedException {
+        int length;
+        while (buffer.hasRemaining() && (length = framer.nextFrameLength(buffer)) >= 0) {
+            buffer.position(buffer.position() + length);
+            consumed += length;
+            found.add(consumed);
+        }
+        return consumed;
+    }
+}
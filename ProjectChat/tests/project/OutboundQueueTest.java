@@ -0,0 +1,127 @@
+package project;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+    @Test
+    void keepsOrderWithinCapacity() {
+        OutboundQueue queue = new OutboundQueue(3, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(OutboundQueue.Offer.QUEUED, queue.offer(frame(i)));
+        }
+        assertEquals(3, queue.depth());
+        assertEquals(List.of(0, 1, 2), drain(queue));
+        assertEquals(0, queue.depth());
+        assertEquals(0, queue.dropped());
+    }
+
+    @Test
+    void dropOldestKeepsNewestFrames() {
+        OutboundQueue queue = new OutboundQueue(3, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 3; i++) queue.offer(frame(i));
+        assertEquals(OutboundQueue.Offer.DROPPED, queue.offer(frame(3)));
+        assertEquals(OutboundQueue.Offer.DROPPED, queue.offer(frame(4)));
+        assertEquals(3, queue.depth());
+        assertEquals(2, queue.dropped());
+        assertEquals(List.of(2, 3, 4), drain(queue));
+    }
+
+    @Test
+    void dropNewestKeepsQueuedFrames() {
+        OutboundQueue queue = new OutboundQueue(3, OutboundQueue.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 3; i++) queue.offer(frame(i));
+        assertEquals(OutboundQueue.Offer.DROPPED, queue.offer(frame(3)));
+        assertEquals(3, queue.depth());
+        assertEquals(1, queue.dropped());
+        assertEquals(List.of(0, 1, 2), drain(queue));
+    }
+
+    @Test
+    void disconnectRejectsFrameAndKeepsDepth() {
+        OutboundQueue queue = new OutboundQueue(3, OutboundQueue.OverflowPolicy.DISCONNECT);
+        for (int i = 0; i < 3; i++) queue.offer(frame(i));
+        assertEquals(OutboundQueue.Offer.OVERFLOW, queue.offer(frame(3)));
+        assertEquals(3, queue.depth());
+        assertEquals(List.of(0, 1, 2), drain(queue));
+    }
+
+    //очередь соединения сессии: ничего не отбрасывается, а запас burst вмещает досылку пропущенного
+    @Test
+    void sessionQueueDisconnectsAfterBurst() {
+        OutboundQueue queue = new OutboundQueue(3, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.disconnectOnOverflow(2);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(OutboundQueue.Offer.QUEUED, queue.offer(frame(i)));
+        }
+        assertEquals(OutboundQueue.Offer.OVERFLOW, queue.offer(frame(5)));
+        assertEquals(List.of(0, 1, 2, 3, 4), drain(queue));
+    }
+
+    @Test
+    void clearResetsDepth() {
+        OutboundQueue queue = new OutboundQueue(3, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) queue.offer(frame(i));
+        queue.clear();
+        assertEquals(0, queue.depth());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    //рассылающие потоки и писатель одновременно: каждый поставленный кадр либо записан, либо учтен как отброшенный
+    @Test
+    void countsEveryFrameUnderContention() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(16, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        int producers = 4;
+        int perProducer = 50_000;
+        AtomicLong reportedDrops = new AtomicLong();
+        AtomicBoolean done = new AtomicBoolean();
+        long[] written = new long[1];
+
+        Thread writer = new Thread(() -> {
+            while (!done.get() || !queue.isEmpty()) {
+                if (queue.poll() != null) written[0]++;
+            }
+        });
+        writer.start();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    if (queue.offer(frame(i)) == OutboundQueue.Offer.DROPPED) reportedDrops.incrementAndGet();
+                }
+            });
+            threads.add(producer);
+            producer.start();
+        }
+        for (Thread producer : threads) producer.join();
+        done.set(true);
+        writer.join();
+
+        assertEquals((long) producers * perProducer, written[0] + queue.dropped());
+        assertEquals(queue.dropped(), reportedDrops.get());
+        assertEquals(0, queue.depth());
+    }
+
+    private static ByteBuffer frame(int number) {
+        return ByteBuffer.allocate(4).putInt(0, number);
+    }
+
+    private static List<Integer> drain(OutboundQueue queue) {
+        List<Integer> numbers = new ArrayList<>();
+        ByteBuffer frame;
+        while ((frame = queue.poll()) != null) {
+            numbers.add(frame.getInt(0));
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,78 @@
+package project;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+//Соединение для тестов без сети: запоминает отправленные кадры, а глубину очереди и число отброшенных
+//кадров отдает из полей, которые тест задает сам
+class RecordingTransport extends Transport {
+    final List<ByteBuffer> frames = new ArrayList<>();
+    //последний запас очереди из disconnectOnOverflow, -1 - не вызывался
+    int burst = -1;
+    boolean closed;
+    int depth;
+    long dropped;
+
+    RecordingTransport() {
+        this(Protocol.CURRENT);
+    }
+
+    RecordingTransport(int version) {
+        useProtocol(version);
+    }
+
+    //отправленные сообщения в виде "ТИП данные"
+    List<String> received() throws StreamCorruptedException {
+        List<String> result = new ArrayList<>();
+        for (ByteBuffer frame : frames) {
+            Message message = BinaryCodec.decode(frame.duplicate());
+            result.add(message.getType() + (message.getData() == null ? "" : " " + message.getData()));
+        }
+        return result;
+    }
+
+    @Override
+    public void send(Message message) {
+        sendFrame(ByteBuffer.wrap(BinaryCodec.encode(message)));
+    }
+
+    @Override
+    public void send(EncodedMessage message) throws IOException {
+        sendFrame(ByteBuffer.wrap(message.frame(getProtocolVersion())));
+    }
+
+    @Override
+    public void sendFrame(ByteBuffer frame) {
+        frames.add(frame);
+    }
+
+    @Override
+    void disconnectOnOverflow(int burst) {
+        this.burst = burst;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return InetSocketAddress.createUnresolved("localhost", 0);
+    }
+
+    @Override
+    public int getOutboundDepth() {
+        return depth;
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
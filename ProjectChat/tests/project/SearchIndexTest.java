@@ -0,0 +1,126 @@
+package project;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Списки смещений хранятся блоками по 128 значений, поэтому в тестах слов больше чем на один блок,
+//а разности между смещениями занимают в varint от одного до трех байт
+class SearchIndexTest {
+    @Test
+    void splitsMessageIntoTerms() {
+        assertEquals(List.of("@alice", "елка", "и", "еж", "2024"),
+                new ArrayList<>(SearchIndex.terms("Alice: Ёлка и ЁЖ, 2024!")));
+        assertEquals(List.of("без", "автора"), new ArrayList<>(SearchIndex.terms("без автора")));
+    }
+
+    //все смещения слова по убыванию, через границы блоков и с разностями разной длины
+    @Test
+    void decodesPostingListAcrossBlocks() {
+        SearchIndex index = new SearchIndex();
+        List<Long> offsets = new ArrayList<>();
+        long offset = 0;
+        for (int i = 0; i < 1000; i++) {
+            offsets.add(offset);
+            index.add(offset, Set.of("слово"));
+            offset += i % 3 == 0 ? 1 : i % 3 == 1 ? 200 : 20_000;
+        }
+        long[] expected = offsets.stream().mapToLong(Long::longValue).sorted().toArray();
+        reverse(expected);
+        assertArrayEquals(expected, index.search("слово", 1000, 0));
+    }
+
+    //пересечение: кандидаты дает редкое слово, частое проверяется поиском внутри своего блока,
+    //в том числе на первых и последних значениях блоков
+    @Test
+    void intersectsListsAcrossBlocks() {
+        SearchIndex index = new SearchIndex();
+        for (long offset = 0; offset < 3000; offset++) {
+            Set<String> words = new HashSet<>();
+            if (offset % 2 == 0) words.add("чет");
+            if (offset % 3 == 0) words.add("три");
+            index.add(offset, words);
+        }
+        long[] expected = LongStream.iterate(2994, o -> o >= 0, o -> o - 6).toArray();
+        assertArrayEquals(expected, index.search("чет три", 1000, 0));
+        assertArrayEquals(new long[]{2994, 2988, 2982}, index.search("три чет", 3, 0));
+    }
+
+    @Test
+    void stopsAtFloor() {
+        SearchIndex index = new SearchIndex();
+        for (long offset = 0; offset < 500; offset++) {
+            index.add(offset, Set.of("все"));
+        }
+        long[] found = index.search("все", 1000, 300);
+        assertEquals(200, found.length);
+        assertEquals(499, found[0]);
+        assertEquals(300, found[found.length - 1]);
+    }
+
+    //"слово*" - объединение списков без повторов, по убыванию
+    @Test
+    void mergesPrefixMatches() {
+        SearchIndex index = new SearchIndex();
+        for (long offset = 0; offset < 400; offset++) {
+            Set<String> words = new HashSet<>();
+            if (offset % 2 == 0) words.add("релиз");
+            if (offset % 5 == 0) words.add("релизный");
+            if (offset % 7 == 0) words.add("река");
+            index.add(offset, words);
+        }
+        long[] found = index.search("рел*", 1000, 0);
+        long[] expected = LongStream.iterate(399, o -> o >= 0, o -> o - 1)
+                .filter(o -> o % 2 == 0 || o % 5 == 0).toArray();
+        assertArrayEquals(expected, found);
+    }
+
+    //trim удаляет только целые старые блоки: все смещения от floor остаются, а новые продолжают добавляться
+    @Test
+    void keepsRecentOffsetsAfterTrim() {
+        SearchIndex index = new SearchIndex();
+        for (long offset = 0; offset < 1000; offset++) {
+            index.add(offset, Set.of("слово"));
+        }
+        index.add(5, Set.of("старое"));
+        index.trim(600);
+        for (long offset = 1000; offset < 1100; offset++) {
+            index.add(offset, Set.of("слово"));
+        }
+
+        long[] found = index.search("слово", 2000, 0);
+        long[] recent = LongStream.iterate(1099, o -> o >= 600, o -> o - 1).toArray();
+        assertArrayEquals(recent, Arrays.copyOf(found, recent.length));
+        for (long offset : found) {
+            assertTrue(offset < 1100);
+        }
+        assertEquals(0, index.search("старое", 10, 0).length);
+    }
+
+    //повторное или более раннее смещение не добавляется
+    @Test
+    void ignoresOffsetsOutOfOrder() {
+        SearchIndex index = new SearchIndex();
+        index.add(10, Set.of("слово"));
+        index.add(10, Set.of("слово"));
+        index.add(3, Set.of("слово"));
+        assertArrayEquals(new long[]{10}, index.search("слово", 10, 0));
+    }
+
+    private static void reverse(long[] values) {
+        for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+            long value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+}
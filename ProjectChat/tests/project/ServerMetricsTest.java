@@ -0,0 +1,79 @@
+package project;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Метрики по пользователям: по максимуму глубины очередей видно, что кто-то отстает, а по меткам user - кто
+class ServerMetricsTest {
+    private static final TimingWheel TIMERS = new TimingWheel("test-metrics", 10, 8);
+
+    private final List<Session> sessions = new ArrayList<>();
+
+    //самые длинные очереди по убыванию, не больше TOP_USERS; пользователи с пустой очередью не публикуются
+    @Test
+    void publishesDeepestQueuesByUser() throws IOException {
+        add("alice", 5);
+        add("bob", 0);
+        add("carol", 30);
+        for (int i = 0; i < ServerMetrics.TOP_USERS; i++) add("user" + i, 1);
+
+        List<String> lines = lines(render(), "chat_user_outbound_queue_depth{");
+        assertEquals(ServerMetrics.TOP_USERS, lines.size());
+        assertEquals("chat_user_outbound_queue_depth{user=\"carol\"} 30", lines.get(0));
+        assertEquals("chat_user_outbound_queue_depth{user=\"alice\"} 5", lines.get(1));
+        assertTrue(lines.stream().noneMatch(line -> line.contains("bob")));
+        assertTrue(render().contains("chat_outbound_queue_depth_max 30\n"));
+    }
+
+    //отброшенные кадры по пользователям, больше всего - первыми
+    @Test
+    void publishesDroppedFramesByUser() throws IOException {
+        add("alice", 0, 3);
+        add("bob", 4, 0);
+        add("carol", 0, 40);
+
+        assertEquals(List.of(
+                "chat_user_outbound_dropped{user=\"carol\"} 40",
+                "chat_user_outbound_dropped{user=\"alice\"} 3"), lines(render(), "chat_user_outbound_dropped{"));
+    }
+
+    //имя - значение метки, кавычки и обратная косая черта в нем экранируются
+    @Test
+    void escapesUserNameInLabel() throws IOException {
+        add("a\"b\\c", 2);
+        assertEquals(List.of("chat_user_outbound_queue_depth{user=\"a\\\"b\\\\c\"} 2"),
+                lines(render(), "chat_user_outbound_queue_depth{"));
+    }
+
+    private void add(String userName, int depth) {
+        add(userName, depth, 0);
+    }
+
+    private void add(String userName, int depth, long dropped) {
+        RecordingTransport transport = new RecordingTransport();
+        transport.depth = depth;
+        transport.dropped = dropped;
+        sessions.add(new Session(userName, null, transport, 0));
+    }
+
+    private String render() throws IOException {
+        Collection<Session> snapshot = new ArrayList<>(sessions);
+        ServerMetrics.SHARED.start(TIMERS, () -> snapshot);
+        return ServerMetrics.SHARED.render();
+    }
+
+    private static List<String> lines(String text, String prefix) {
+        List<String> result = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            if (line.startsWith(prefix)) result.add(line);
+        }
+        return result;
+    }
+}
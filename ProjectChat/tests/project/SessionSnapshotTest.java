@@ -0,0 +1,116 @@
+package project;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Сессии сохраняются в файл и восстанавливаются из него, как при перезапуске сервера; комнаты - на шарде,
+//который выполняет задачи сразу в вызывающем потоке
+class SessionSnapshotTest {
+    private final RoomRegistry rooms = new RoomRegistry(new Executor[]{Runnable::run});
+
+    @TempDir
+    Path directory;
+
+    //последний кадр ушел в очередь, но до клиента не дошел: после перезапуска клиент получает его при возобновлении
+    @Test
+    void resumesRestoredSessionFromMissedFrame() throws IOException {
+        Session session = new Session("alice", "token", new RecordingTransport(), 8);
+        for (int i = 0; i < 5; i++) session.send(text(i));
+        rooms.rejoin(session, "ops");
+
+        List<SessionSnapshot> restored = saveAndLoad(List.of(session));
+        assertEquals(1, restored.size());
+        Session copy = restored.get(0).session;
+        assertEquals("alice", copy.getUserName());
+        assertEquals(5, copy.getSentCount());
+        assertEquals(List.of("ops"), restored.get(0).rooms);
+
+        RecordingTransport client = new RecordingTransport();
+        assertTrue(copy.resume(client, 4));
+        assertEquals(List.of("NAME_ACCEPTED token", "TEXT m4"), client.received());
+        copy.send(text(5));
+        assertEquals("TEXT m5", client.received().get(2));
+    }
+
+    //сохраняются только последние SessionSnapshot.FRAMES кадров: раньше них продолжить нельзя
+    @Test
+    void keepsOnlyLastFramesOfBuffer() throws IOException {
+        int count = SessionSnapshot.FRAMES + 10;
+        Session session = new Session("alice", "token", new RecordingTransport(), count);
+        for (int i = 0; i < count; i++) session.send(text(i));
+
+        Session copy = saveAndLoad(List.of(session)).get(0).session;
+        RecordingTransport client = new RecordingTransport();
+        assertFalse(copy.resume(client, 9));
+        assertTrue(copy.resume(client, 10));
+        assertEquals(SessionSnapshot.FRAMES + 1, client.received().size());
+        assertEquals("TEXT m10", client.received().get(1));
+    }
+
+    //сессии без токена (старые клиенты) и завершенные не сохраняются; файл удаляется после чтения
+    @Test
+    void skipsSessionsThatCannotResume() throws IOException {
+        RecordingTransport legacy = new RecordingTransport();
+        Session old = new Session("old", null, legacy, 0);
+        RecordingTransport gone = new RecordingTransport();
+        Session ended = new Session("gone", "ended", gone, 4);
+        ended.detach(gone);
+        ended.endIfDetached();
+        Session alive = new Session("alice", "token", new RecordingTransport(), 4);
+
+        Path file = directory.resolve("sessions");
+        SessionSnapshot.save(List.of(old, ended, alive), rooms, file);
+        List<SessionSnapshot> restored = SessionSnapshot.load(file);
+        assertEquals(1, restored.size());
+        assertEquals("alice", restored.get(0).session.getUserName());
+        assertFalse(Files.exists(file));
+    }
+
+    //файл другого формата (например, от прежней версии сервера) не восстанавливается
+    @Test
+    void ignoresFileOfOtherFormat() throws IOException {
+        Path file = directory.resolve("sessions");
+        Files.write(file, List.of("token\u00003\u00005\u0000alice"), StandardCharsets.UTF_8);
+        assertTrue(SessionSnapshot.load(file).isEmpty());
+        assertFalse(Files.exists(file));
+    }
+
+    //оборванный файл: восстанавливаются целые записи до места обрыва
+    @Test
+    void restoresCompleteRecordsOfTruncatedFile() throws IOException {
+        Session first = new Session("alice", "first", new RecordingTransport(), 4);
+        first.send(text(0));
+        Session second = new Session("bob", "second", new RecordingTransport(), 4);
+        second.send(text(1));
+        Path file = directory.resolve("sessions");
+        SessionSnapshot.save(List.of(first, second), rooms, file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        List<SessionSnapshot> restored = SessionSnapshot.load(file);
+        assertEquals(1, restored.size());
+        assertEquals("alice", restored.get(0).session.getUserName());
+    }
+
+    private List<SessionSnapshot> saveAndLoad(List<Session> sessions) throws IOException {
+        Path file = directory.resolve("sessions");
+        SessionSnapshot.save(sessions, rooms, file);
+        return SessionSnapshot.load(file);
+    }
+
+    private static Message text(int number) {
+        return new Message(MessageType.TEXT, "m" + number);
+    }
+}
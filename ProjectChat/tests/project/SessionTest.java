@@ -0,0 +1,136 @@
+package project;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionTest {
+    //обрыв: клиент получил 3 кадра из 5, еще один отправлен, пока соединения не было;
+    //новое соединение получает NAME_ACCEPTED и ровно пропущенные кадры по порядку
+    @Test
+    void resumesFromFirstMissedFrame() throws IOException {
+        RecordingTransport first = new RecordingTransport();
+        Session session = new Session("alice", "token", first, 8);
+        for (int i = 0; i < 5; i++) session.send(text(i));
+        assertTrue(session.detach(first));
+        session.send(text(5));
+
+        RecordingTransport second = new RecordingTransport();
+        assertTrue(session.resume(second, 3));
+        assertEquals(List.of("NAME_ACCEPTED token", "TEXT m3", "TEXT m4", "TEXT m5"), second.received());
+
+        session.send(text(6));
+        assertEquals("TEXT m6", second.received().get(4));
+        assertEquals(7, session.getSentCount());
+    }
+
+    //прежнее соединение, еще не заметившее обрыв, закрывается при возобновлении
+    @Test
+    void closesPreviousTransportOnResume() throws IOException {
+        RecordingTransport first = new RecordingTransport();
+        Session session = new Session("alice", "token", first, 8);
+        session.send(text(0));
+
+        RecordingTransport second = new RecordingTransport();
+        assertTrue(session.resume(second, 1));
+        assertTrue(first.closed);
+        assertEquals(List.of("NAME_ACCEPTED token"), second.received());
+        assertFalse(session.detach(first));
+    }
+
+    //пропущенное уже вытеснено из буфера или клиент насчитал больше, чем отправлено, - продолжить нельзя
+    @Test
+    void refusesResumeOutsideBuffer() throws IOException {
+        RecordingTransport first = new RecordingTransport();
+        Session session = new Session("alice", "token", first, 4);
+        for (int i = 0; i < 10; i++) session.send(text(i));
+        session.detach(first);
+
+        RecordingTransport late = new RecordingTransport();
+        assertFalse(session.resume(late, 5));
+        assertFalse(session.resume(late, 11));
+        assertTrue(late.received().isEmpty());
+        assertTrue(session.resume(late, 6));
+    }
+
+    @Test
+    void endedSessionCannotResume() throws IOException {
+        RecordingTransport first = new RecordingTransport();
+        Session session = new Session("alice", "token", first, 4);
+        session.detach(first);
+        assertTrue(session.endIfDetached());
+        assertFalse(session.resume(new RecordingTransport(), 0));
+    }
+
+    //отброшенные кадры считаются за всю сессию, переподключение счетчик не обнуляет
+    @Test
+    void countsDroppedFramesAcrossTransports() throws IOException {
+        RecordingTransport first = new RecordingTransport();
+        Session session = new Session("alice", "token", first, 4);
+        first.dropped = 3;
+        assertEquals(3, session.getDroppedCount());
+
+        session.detach(first);
+        assertEquals(3, session.getDroppedCount());
+        RecordingTransport second = new RecordingTransport();
+        assertTrue(session.resume(second, 0));
+        second.dropped = 2;
+        assertEquals(5, session.getDroppedCount());
+
+        RecordingTransport third = new RecordingTransport();
+        assertTrue(session.resume(third, 0));
+        assertEquals(5, session.getDroppedCount());
+    }
+
+    //служебные кадры вне нумерации не досылаются и не сдвигают счет
+    @Test
+    void unnumberedFramesAreNotReplayed() throws IOException {
+        RecordingTransport first = new RecordingTransport();
+        Session session = new Session("alice", "token", first, 4);
+        session.send(text(0));
+        session.sendUnnumbered(new Message(MessageType.RECONNECT_HINT, "100"));
+        session.detach(first);
+
+        RecordingTransport second = new RecordingTransport();
+        assertTrue(session.resume(second, 0));
+        assertEquals(List.of("NAME_ACCEPTED token", "TEXT m0"), second.received());
+    }
+
+    //соединение сессии не отбрасывает кадры: при открытии и возобновлении реестр переключает его очередь
+    //на закрытие при переполнении, при возобновлении - с запасом на досылку
+    @Test
+    void registrySwitchesSessionTransportsToDisconnect() throws IOException {
+        List<Session> ended = new ArrayList<>();
+        SessionRegistry registry = new SessionRegistry(new TimingWheel("test-sessions", 10, 8), ended::add);
+
+        RecordingTransport legacy = new RecordingTransport(Protocol.BINARY);
+        assertNull(registry.open("old", legacy).getToken());
+        assertEquals(-1, legacy.burst);
+
+        RecordingTransport first = new RecordingTransport();
+        Session session = registry.open("alice", first);
+        assertNotNull(session.getToken());
+        assertEquals(0, first.burst);
+
+        session.send(text(0));
+        registry.detach(session, first);
+        RecordingTransport second = new RecordingTransport();
+        assertSame(session, registry.resume(session.getToken(), 0, second));
+        assertEquals(SessionRegistry.BUFFER_SIZE, second.burst);
+        assertEquals(List.of("NAME_ACCEPTED " + session.getToken(), "TEXT m0"), second.received());
+        assertTrue(ended.isEmpty());
+    }
+
+    private static Message text(int number) {
+        return new Message(MessageType.TEXT, "m" + number);
+    }
+}
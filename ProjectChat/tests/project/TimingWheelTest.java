@@ -0,0 +1,92 @@
+package project;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Колесо из 4 ячеек по 5 мс: полный оборот - 20 мс, поэтому таймеры дальше 20 мс ждут несколько оборотов.
+//Границы сверху щедрые, чтобы тесты не зависели от загрузки машины; раньше срока таймер не срабатывает никогда
+class TimingWheelTest {
+    private static final long TICK_MILLIS = 5;
+    private static final int SIZE = 4;
+
+    private final TimingWheel wheel = new TimingWheel("test-timers", TICK_MILLIS, SIZE);
+
+    //таймер через несколько оборотов срабатывает не раньше своего срока
+    @Test
+    void firesAfterSeveralRounds() throws InterruptedException {
+        long delay = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS * SIZE * 3 + 7);
+        long[] firedAfter = new long[1];
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(() -> {
+            firedAfter[0] = System.nanoTime() - start;
+            fired.countDown();
+        }, delay);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(firedAfter[0] >= delay, "сработал через " + firedAfter[0] + " нс");
+    }
+
+    //таймеры одной ячейки с разным числом оборотов срабатывают каждый на своем обороте
+    @Test
+    void separatesTimersOfOneBucketByRounds() throws InterruptedException {
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch fired = new CountDownLatch(3);
+        long revolution = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS * SIZE);
+        long first = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS * 2);
+        wheel.schedule(() -> { order.add("third"); fired.countDown(); }, first + 2 * revolution);
+        wheel.schedule(() -> { order.add("first"); fired.countDown(); }, first);
+        wheel.schedule(() -> { order.add("second"); fired.countDown(); }, first + revolution);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of("first", "second", "third"), order);
+    }
+
+    //отмена до переноса в ячейку (таймер еще в очереди новых) и после, когда он уже ждет своего оборота
+    @Test
+    void cancelledTimersNeverFire() throws InterruptedException {
+        AtomicBoolean ranPending = new AtomicBoolean();
+        AtomicBoolean ranBucketed = new AtomicBoolean();
+        CountDownLatch control = new CountDownLatch(1);
+        long delay = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS * SIZE * 2);
+
+        wheel.schedule(() -> ranPending.set(true), delay).cancel();
+        TimingWheel.Timeout bucketed = wheel.schedule(() -> ranBucketed.set(true), delay);
+        Thread.sleep(TICK_MILLIS * 3);
+        bucketed.cancel();
+        //контрольный таймер позже обоих отмененных
+        wheel.schedule(control::countDown, delay + TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS * 2));
+
+        assertTrue(control.await(2, TimeUnit.SECONDS));
+        assertFalse(ranPending.get());
+        assertFalse(ranBucketed.get());
+    }
+
+    //таймер с уже прошедшим сроком срабатывает на ближайшем тике
+    @Test
+    void firesOverdueTimerOnNextTick() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(fired::countDown, -TimeUnit.SECONDS.toNanos(1));
+        assertTrue(fired.await(1, TimeUnit.SECONDS));
+    }
+
+    //ошибка в задаче не останавливает поток колеса
+    @Test
+    void keepsRunningAfterFailingTask() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(() -> {
+            throw new IllegalStateException("ошибка задачи");
+        }, 0);
+        wheel.schedule(fired::countDown, TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS * 3));
+        assertTrue(fired.await(1, TimeUnit.SECONDS));
+    }
+}